@@ -24,7 +24,6 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -37,8 +36,6 @@ import java.util.stream.Stream;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.lang3.StringUtils;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
@@ -52,10 +49,14 @@ public class AlmaApiCommand {
     // pattern that matches the xml header <?xml ... ?>
     private static final String XML_HEADER_PATTERN = "<\\?.*\\?>";
     // pattern that matches the xml comments <!-- ... -->
-    private static final String XML_COMMENT_PATTERN = "<!--[\\s\\S]*?-->";
+    static final String XML_COMMENT_PATTERN = "<!--[\\s\\S]*?-->";
     // static variables created before creations of all commands or created by previous commands, shared by all commands
     @Getter
-    private static final Map<String, List<Object>> STATIC_VARIABLES_MAP = new HashMap<>();
+    private static final VariableStore VARIABLE_STORE = new VariableStore();
+    // value of unknown variables
+    private static final List<String> UNKNOWN_VARIABLE_VALUES = List.of("");
+    @Getter
+    private String rawEndpoint;
     @Getter
     private List<String> endpoints;
     @Getter
@@ -74,6 +75,8 @@ public class AlmaApiCommand {
     @Getter
     private String filterAlternativeOption;
     @Getter
+    private JSONFilter filter;
+    @Getter
     private List<Target> targets;
     @Getter
     private String updateVariableName;
@@ -89,6 +92,32 @@ public class AlmaApiCommand {
     private boolean saveResponse;
     @Getter
     private String responseFileName;
+    @Getter
+    private String responseArchiveMode;
+    @Getter
+    private String responseCompression;
+
+    // timeouts and deadline in milliseconds, -1 if the global ones should be used
+    @Getter
+    private int connectTimeout;
+    @Getter
+    private int socketTimeout;
+    @Getter
+    private int connectionRequestTimeout;
+    @Getter
+    private long deadline;
+    // true if slow GET requests should be hedged
+    @Getter
+    private boolean hedge;
+    // true if GET responses should be taken from and added to the response cache
+    @Getter
+    private boolean cache;
+    // true if large request bodies may be sent compressed with gzip
+    @Getter
+    private boolean compressRequest;
+    // settings of the paging of list endpoints, null if every endpoint is requested once
+    @Getter
+    private Pagination pagination;
 
     public AlmaApiCommand(HierarchicalConfiguration config) {
 
@@ -96,13 +125,23 @@ public class AlmaApiCommand {
         if (StringUtils.isNotBlank(responseFileName)) {
             saveResponse = true;
         }
+        responseArchiveMode = parseResponseArchiveMode(config.getString("@archive", ""));
+        responseCompression = parseResponseCompression(config.getString("@compression", ""));
 
-        String rawEndpoint = config.getString("@endpoint");
+        rawEndpoint = config.getString("@endpoint");
         initializeEndpoints(rawEndpoint, config);
         method = config.getString("@method");
         headerAccept = wrapHeader(config.getString("@accept", "json"));
         headerContentType = wrapHeader(config.getString("@content-type", "json"));
 
+        connectTimeout = config.getInt("@connect-timeout", -1);
+        socketTimeout = config.getInt("@socket-timeout", -1);
+        connectionRequestTimeout = config.getInt("@connection-request-timeout", -1);
+        deadline = config.getLong("@deadline", -1);
+        hedge = "get".equalsIgnoreCase(method) && config.getBoolean("@hedge", false);
+        cache = "get".equalsIgnoreCase(method) && config.getBoolean("@cache", false);
+        compressRequest = "gzip".equalsIgnoreCase(config.getString("@request-compression", ""));
+
         List<HierarchicalConfiguration> parameterConfigs = config.configurationsAt("parameter");
         for (HierarchicalConfiguration parameterConfig : parameterConfigs) {
             String parameterName = parameterConfig.getString("@name");
@@ -133,6 +172,14 @@ public class AlmaApiCommand {
             // merely used to make <target> optional, nothing special needs to be done here
         }
 
+        try {
+            HierarchicalConfiguration paginateConfig = config.configurationAt("paginate");
+            pagination = new Pagination(paginateConfig, headerAccept.endsWith("xml"));
+
+        } catch (IllegalArgumentException e) {
+            // merely used to make <paginate> optional, nothing special needs to be done here
+        }
+
         try {
             HierarchicalConfiguration updateConfig = config.configurationAt("update");
             initializeUpdateFields(updateConfig);
@@ -196,8 +243,8 @@ public class AlmaApiCommand {
         }
 
         for (String staticVariable : staticVariablesNeeded) {
-            // staticVariable is key in the STATIC_VARIABLES_MAP, and it also appears as context in the endpoint
-            // hence just replace them with values from the STATIC_VARIABLES_MAP
+            // staticVariable is key in the VARIABLE_STORE, and it also appears as context in the endpoint
+            // hence just replace them with values from the VARIABLE_STORE
             endpoints = replaceStaticVariableInEndpoints(endpoints, staticVariable);
         }
 
@@ -217,7 +264,7 @@ public class AlmaApiCommand {
         while (matcher.find()) {
             String variableName = matcher.group();
             log.debug("static variable detected: " + variableName);
-            if (STATIC_VARIABLES_MAP.containsKey(variableName)) {
+            if (VARIABLE_STORE.contains(variableName)) {
                 variables.add(variableName);
             } else {
                 // unknown static variable
@@ -234,35 +281,11 @@ public class AlmaApiCommand {
      * 
      * @param rawEndpoints a list of endpoints
      * @param staticVariable static variable that is to be replaced
-     * @return a list of endpoints with their specified static variable being replaced
+     * @return a list of endpoints with their specified static variable being replaced, which are rendered on demand
      */
     private List<String> replaceStaticVariableInEndpoints(List<String> rawEndpoints, String staticVariable) {
-        List<String> results = new ArrayList<>();
-        for (String rawEndpoint : rawEndpoints) {
-            List<String> replacedEndpoints = replaceStaticVariableInEndpoint(rawEndpoint, staticVariable);
-            results.addAll(replacedEndpoints);
-        }
-
-        return results;
-    }
-
-    /**
-     * replace the input static variable in the endpoint
-     * 
-     * @param rawEndpoint endpoint string
-     * @param staticVariable static variable that is to be replaced
-     * @return a list of endpoints with their specified static variable being replaced
-     */
-    private List<String> replaceStaticVariableInEndpoint(String rawEndpoint, String staticVariable) {
-        List<String> results = new ArrayList<>();
-        List<String> possibleValues = getVariableValues(staticVariable, false);
-
-        for (String value : possibleValues) {
-            String endpoint = rawEndpoint.replace(staticVariable, value);
-            results.add(endpoint);
-        }
-
-        return results;
+        // the values of a variable never change, updating a variable replaces it with a new one
+        return new ExpandedEndpoints(rawEndpoints, staticVariable, getVariableValues(staticVariable, false));
     }
 
     /**
@@ -292,22 +315,37 @@ public class AlmaApiCommand {
     private void initializeFilterFields(HierarchicalConfiguration config) {
         filterKey = config.getString("@key", "");
         filterFallbackKey = config.getString("@fallback", filterKey);
+        // the configured filterValue may be a variable that is created by a previous command, hence it is resolved only when the filter is applied
         filterValue = config.getString("@value", "");
-        if (filterValue.contains("$")) {
-            // configured filterValue is a variable
-            String wrappedKey = wrapKey(filterValue);
-            if (!STATIC_VARIABLES_MAP.containsKey(wrappedKey)) {
-                // variable not found, report error
-                log.debug("unknown variable: " + filterValue);
-                return;
-            }
+        filterAlternativeOption = parseFilterAlternativeOption(config.getString("@alt", "")); // all | none | first | last | random
 
-            // retrieve value from the variables map
-            filterValue = getVariableValues(wrappedKey, false).get(0);
-            log.debug("filterValue after replacing static variable = " + filterValue);
+        if (StringUtils.isNotBlank(filterKey)) {
+            filter = new JSONFilter(filterKey, filterFallbackKey, filterAlternativeOption);
         }
+    }
 
-        filterAlternativeOption = parseFilterAlternativeOption(config.getString("@alt", "")); // all | none | first | last | random
+    /**
+     * get all values that the filter key shall be compared with
+     * 
+     * @return the configured filter value itself if it is plain text, otherwise all values of the configured variable
+     */
+    public Set<String> getFilterValues() {
+        if (!filterValue.contains("$")) {
+            return Set.of(filterValue);
+        }
+
+        // configured filterValue is a variable
+        String wrappedKey = wrapKey(filterValue);
+        VariableStore.Variable variable = VARIABLE_STORE.get(wrappedKey);
+        if (variable == null) {
+            // variable not found, report error
+            log.debug("unknown variable: " + filterValue);
+            return Set.of();
+        }
+
+        Set<String> values = variable.getValueSet();
+        log.debug("filterValue after replacing static variable = " + values);
+        return values;
     }
 
     /**
@@ -332,6 +370,38 @@ public class AlmaApiCommand {
         return result;
     }
 
+    /**
+     * parse the configured archive mode of responses
+     * 
+     * @param mode configured mode
+     * @return overwrite | endpoint | append
+     */
+    private String parseResponseArchiveMode(String mode) {
+        switch (mode.toLowerCase()) {
+            case ResponseArchive.MODE_ENDPOINT:
+            case ResponseArchive.MODE_APPEND:
+                return mode.toLowerCase();
+            default:
+                return ResponseArchive.MODE_OVERWRITE;
+        }
+    }
+
+    /**
+     * parse the configured compression of archived responses
+     * 
+     * @param compression configured compression
+     * @return gzip | none
+     */
+    private String parseResponseCompression(String compression) {
+        if (ResponseArchive.COMPRESSION_GZIP.equalsIgnoreCase(compression)) {
+            return ResponseArchive.COMPRESSION_GZIP;
+        }
+        if (StringUtils.isNotBlank(compression) && !ResponseArchive.COMPRESSION_NONE.equalsIgnoreCase(compression)) {
+            log.debug("Unknown compression: " + compression + ". Responses will be archived uncompressed.");
+        }
+        return ResponseArchive.COMPRESSION_NONE;
+    }
+
     /**
      * initialize all fields needed for saving variables
      * 
@@ -565,7 +635,7 @@ public class AlmaApiCommand {
             String variableContext = variable.getKey();
             String variableName = variable.getValue();
             String variableValue = config.getString(variableName);
-            // TODO: report error when there is no such variable configured
+            // placeholders without such a sub-tag are reported by the CommandPlanValidator before the run
             result = result.replace(variableContext, variableValue);
         }
 
@@ -599,13 +669,25 @@ public class AlmaApiCommand {
      * @return true if the static variables map is successfully updated, false otherwise
      */
     public static boolean updateStaticVariablesMap(String variable, Object value) {
+        return updateStaticVariablesMap(variable, value, null);
+    }
+
+    /**
+     * update the static variables map on behalf of an execution, which owns the temporary file if the variable is spilled
+     * 
+     * @param variable variable name
+     * @param value variable value
+     * @param execution execution of the step, may be null
+     * @return true if the static variables map is successfully updated, false otherwise
+     */
+    public static boolean updateStaticVariablesMap(String variable, Object value, VariableStore.Execution execution) {
         if (value == null) {
             log.debug("The variable's value should not be blank.");
             return false;
         }
         List<Object> data = new ArrayList<>();
         data.add(value);
-        return updateStaticVariablesMap(variable, data);
+        return updateStaticVariablesMap(variable, data, execution);
     }
 
     /**
@@ -616,6 +698,18 @@ public class AlmaApiCommand {
      * @return true if the static variables map is successfully updated, false otherwise
      */
     public static boolean updateStaticVariablesMap(String variable, List<Object> values) {
+        return updateStaticVariablesMap(variable, values, null);
+    }
+
+    /**
+     * update the static variables map on behalf of an execution, which owns the temporary file if the variable is spilled
+     * 
+     * @param variable variable name
+     * @param values a list of possible variable values
+     * @param execution execution of the step, may be null
+     * @return true if the static variables map is successfully updated, false otherwise
+     */
+    public static boolean updateStaticVariablesMap(String variable, List<Object> values, VariableStore.Execution execution) {
         if (StringUtils.isBlank(variable)) {
             // no variable defined, hence no need to update
             return true;
@@ -630,11 +724,9 @@ public class AlmaApiCommand {
         String wrappedKey = wrapKey(variable);
         log.debug("Updating variable: " + wrappedKey);
 
-        if (STATIC_VARIABLES_MAP.containsKey(wrappedKey)) {
-            log.debug("The variable '" + variable + "' already exists. Updating...");
+        if (VARIABLE_STORE.put(wrappedKey, values, execution) != null) {
+            log.debug("The variable '" + variable + "' already exists. Updated.");
         }
-
-        STATIC_VARIABLES_MAP.put(wrappedKey, values);
         return true;
     }
 
@@ -664,32 +756,29 @@ public class AlmaApiCommand {
      * get values of the static variable
      * 
      * @param key name of the static variable whose value is to be retrieved
-     * @return all possible values of this static variable
+     * @param convertJson true if JSON objects shall be rendered as JSON strings, e.g. to be used in a JSON request body
+     * @return unmodifiable list of all possible values of this static variable
      */
     public static List<String> getVariableValues(String key, boolean convertJson) {
-        if (!STATIC_VARIABLES_MAP.containsKey(key)) {
-            return Arrays.asList("");
-        }
-        List<Object> data = STATIC_VARIABLES_MAP.get(key);
-        List<String> results = new ArrayList<>();
-        for (Object obj : data) {
-
-            if (obj instanceof JSONArray) {
-                JSONArray array = (JSONArray) obj;
-                for (Object object : array.toArray()) {
-                    results.add((String) object);
-                }
-            } else if (obj instanceof JSONObject) {
-                JSONObject json = (JSONObject) obj;
-                results.add(json.toString());
-            } else if (convertJson) {
-                results.add(JSONUtils.convertJsonToString(obj));
-            } else {
-                results.add(String.valueOf(obj));
-            }
+        VariableStore.Variable variable = VARIABLE_STORE.get(key);
+        if (variable == null) {
+            return UNKNOWN_VARIABLE_VALUES;
         }
-        log.debug(key + ": " + results.get(0));
+        // the views are cached by the variable, so that expanding endpoints and bodies does not copy the values again
+        List<String> results = variable.getStrings(convertJson);
+        log.debug("{}: {}", key, results.isEmpty() ? "" : results.get(0));
         return results;
     }
 
+    /**
+     * get the values of the static variable as they were stored
+     *
+     * @param key wrapped name of the static variable
+     * @return unmodifiable list of all values, or null if the variable is unknown
+     */
+    public static List<Object> getVariableRawValues(String key) {
+        VariableStore.Variable variable = VARIABLE_STORE.get(key);
+        return variable == null ? null : variable.getValues();
+    }
+
 }
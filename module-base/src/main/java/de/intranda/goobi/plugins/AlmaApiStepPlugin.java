@@ -19,40 +19,58 @@
 
 package de.intranda.goobi.plugins;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
+import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.configuration.SubnodeConfiguration;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Consts;
 import org.apache.http.HttpEntity;
-import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPatch;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
 import org.goobi.beans.Process;
-import org.goobi.beans.Processproperty;
 import org.goobi.beans.Step;
 import org.goobi.production.enums.LogType;
 import org.goobi.production.enums.PluginGuiType;
@@ -65,11 +83,8 @@ import com.jayway.jsonpath.InvalidJsonException;
 
 import de.sub.goobi.config.ConfigPlugins;
 import de.sub.goobi.helper.Helper;
-import de.sub.goobi.helper.StorageProvider;
 import de.sub.goobi.helper.VariableReplacer;
 import de.sub.goobi.helper.exceptions.SwapException;
-import de.sub.goobi.persistence.managers.PropertyManager;
-import io.goobi.workflow.api.connection.HttpUtils;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
@@ -105,8 +120,60 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
 
     private String url;
     private String apiKey;
+    private int archiveQueueSize;
+    // path of the journal used to resume failed runs, blank if no journal should be used
+    private String journalPath;
+    // folder of completed non-GET requests that must not be sent again, blank if requests should not be deduplicated
+    private String idempotencyStorePath;
+    // name of the header that carries the request fingerprint, blank if the backend does not support one
+    private String idempotencyHeader;
+    private long idempotencyTtl;
+    // host of the url, used to share circuit breakers between all processes using the same backend
+    private String backendHost;
+    // thresholds of the circuit breakers, null if no circuit breaker should be used
+    private transient CircuitBreaker.Settings breakerSettings;
+    // timeouts in milliseconds used by all commands that do not configure their own ones, 0 means no timeout
+    private int connectTimeout;
+    private int socketTimeout;
+    private int connectionRequestTimeout;
+    // maximum duration in milliseconds of each command and of the whole step, 0 means no deadline
+    private long commandDeadline;
+    private long stepDeadline;
+    // parameters of the hedging of GET commands with @hedge="true"
+    private transient HedgingPolicy.Settings hedgingSettings;
+    // minimum size in bytes of request bodies that are compressed, if the command allows it
+    private int requestCompressionThreshold;
+    // true if identical GET requests that run at the same time should be sent only once
+    private boolean coalesceGetRequests;
+    // cache of GET responses of commands with @cache="true", null if no response-cache is configured
+    private transient ResponseCache responseCache;
+    private long responseCacheTtl;
+    // true if the commands should only be planned, without sending any request or saving anything
+    @Setter
+    private boolean dryRun;
+    // true if a dry run should process the responses archived by a previous run, as if they were received again
+    @Setter
+    private boolean dryRunReplay;
+    // settings of the transport that sends all requests, null if the requests should simply be sent via HTTP
+    private transient HierarchicalConfiguration transportConfig;
+    // true if the transport records all requests, then no response may be taken from the cache or from another execution
+    private boolean recording;
+
+    // bytes of all requests and responses of a run, before and after compression
+    private transient AtomicLong requestBytes = new AtomicLong();
+    private transient AtomicLong requestWireBytes = new AtomicLong();
+    private transient AtomicLong responseBytes = new AtomicLong();
+    private transient AtomicLong responseWireBytes = new AtomicLong();
+    // GET responses of a run that were found in the response cache or not
+    private transient AtomicLong cacheHits = new AtomicLong();
+    private transient AtomicLong cacheMisses = new AtomicLong();
+    // points in time at which the current command and the current run must be finished
+    private long commandDeadlineAt = Long.MAX_VALUE;
+    private long stepDeadlineAt = Long.MAX_VALUE;
     private transient List<AlmaApiCommand> commandList = new ArrayList<>();
     private transient List<EntryToSaveTemplate> entriesToSaveList = new ArrayList<>();
+    // errors found in the configured commands, which stop the run before any request is sent
+    private List<String> configurationErrors = new ArrayList<>();
 
     private Prefs prefs;
 
@@ -114,25 +181,64 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
     private boolean testmode = false;
 
     private transient VariableReplacer replacer;
+    // VariableReplacer without the metadata file, used as long as no Goobi variable needs the metadata file
+    private transient VariableReplacer processReplacer;
 
     private transient Fileformat fileformat;
-
-    // create a custom response handler
-    private static final ResponseHandler<String> RESPONSE_HANDLER = response -> {
-        log.debug("------- STATUS --- LINE -------");
-        log.debug(response.getStatusLine());
-        log.debug("------- STATUS --- LINE -------");
-        String value = null;
-        HttpEntity entity = response.getEntity();
-        if (entity != null) {
-            value = EntityUtils.toString(entity);
-        }
-        if (response.getStatusLine().getStatusCode() > 399) {
-            // error code
-            throw new IOException("HTTP status code is " + response.getStatusLine().getStatusCode() + ", response is " + value);
-        }
-        return value;
-    };
+    // true once the metadata file was read, no matter whether successfully or not
+    private boolean metadataRead = false;
+    // true if the metadata file should only be read when a Goobi variable or a metadata save actually needs it
+    private boolean deferMetadataRead = false;
+    // namespaces of all Goobi variables used in the configuration, e.g. meta or process
+    private Set<String> goobiVariableNamespaces = new HashSet<>();
+    // true if any metadata was modified during a run, i.e. the metadata file must be written
+    private boolean metadataChanged = false;
+
+    // index of the metadata of the logical DocStruct, which is built when it is needed for the first time during a run
+    private transient Map<String, Metadata> existingMetadataIndex;
+
+    // process properties saved during a run, which are written at once after all entries are processed
+    private transient ProcessPropertyBatch propertyBatch;
+    // false if any entry with stream="true" could not be saved during the run
+    private transient boolean streamedEntriesSaved;
+    // spill settings of this execution for the shared variables, the temporary files of the variables it spilled, and its listeners
+    private transient VariableStore.Execution variableExecution;
+    // wrapped names of the variables restored from the journal, which were saved by the previous run already
+    private transient Set<String> restoredVariables = new HashSet<>();
+
+    // responses that are written to files in the background during a run
+    private transient ResponseArchive responseArchive;
+
+    // transport that sends all requests of a run
+    private transient HttpTransport transport;
+
+    // requests that a dry run would have sent, null if the run is not a dry run
+    private transient RequestPlan requestPlan;
+    // archived responses replayed by a dry run, null if no responses are replayed
+    private transient ArchivedResponses archivedResponses;
+
+    // journal of completed commands and endpoints, null if no journal is configured
+    private transient CommandJournal journal;
+
+    // completed non-GET requests, null if no store is configured
+    private transient IdempotencyStore idempotencyStore;
+
+    // threads that request further pages of list endpoints in advance, shared by all executions
+    private static final ExecutorService PAGE_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "alma-api-paging");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // name of the internal target that reads the total number of records of an XML page
+    private static final String TOTAL_VARIABLE = "alma-api-total";
+    // number of records from which the values of metadata groups are evaluated in parallel
+    private static final int PARALLEL_GROUP_RECORDS = 64;
+    // identical GET requests of all executions that run at the same time, which are only sent once if coalesce-get-requests is enabled
+    // only HTTP errors are shared, a request that was aborted or failed otherwise is tried once more by the waiting executions
+    private static final SingleFlight<SharedResponse> GET_REQUESTS = new SingleFlight<>(failure -> failure instanceof HttpStatusException);
+
+    // timer that aborts requests whose deadline expired, shared by all executions
+    private static final ScheduledThreadPoolExecutor DEADLINE_TIMER = createDeadlineTimer();
 
     @Override
     public void initialize(Step step, String returnPath) {
@@ -140,40 +246,86 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
         this.step = step;
         this.process = step.getProzess();
         this.processId = process.getId();
-        prefs = process.getRegelsatz().getPreferences();
-
-        try {
-            fileformat = process.readMetadataFile();
-            DigitalDocument dd = fileformat.getDigitalDocument();
-            replacer = new VariableReplacer(dd, prefs, process, step);
-        } catch (UGHException | IOException | SwapException e) {
-            log.error(e);
-        }
 
         // read parameters from correct block in configuration file
         SubnodeConfiguration config = ConfigPlugins.getProjectAndStepConfig(title, step);
 
         url = config.getString("url", "");
         apiKey = config.getString("api-key", "");
+        deferMetadataRead = config.getBoolean("defer-metadata-read", false);
+        archiveQueueSize = config.getInt("archive-queue-size", 64);
+        journalPath = config.getString("journal", "");
+        idempotencyStorePath = config.getString("idempotency-store", "");
+        idempotencyHeader = config.getString("idempotency-header", "");
+        idempotencyTtl = config.getLong("idempotency-ttl", 0);
+        backendHost = getHost(url);
+        connectTimeout = config.getInt("connect-timeout", 10000);
+        socketTimeout = config.getInt("socket-timeout", 60000);
+        connectionRequestTimeout = config.getInt("connection-request-timeout", 10000);
+        commandDeadline = config.getLong("command-deadline", 0);
+        stepDeadline = config.getLong("step-deadline", 0);
+        hedgingSettings = new HedgingPolicy.Settings(config.getInt("hedging/percentile", 95), config.getInt("hedging/window-size", 100),
+                config.getInt("hedging/minimum-samples", 20), config.getInt("hedging/budget", 10));
+        requestCompressionThreshold = config.getInt("request-compression-threshold", 65536);
+        coalesceGetRequests = config.getBoolean("coalesce-get-requests", false);
+        dryRun = config.getBoolean("dry-run", false);
+        dryRunReplay = config.getBoolean("dry-run-replay", false);
+        transportConfig = config.configurationsAt("transport").isEmpty() ? null : config.configurationAt("transport");
+        recording = HttpTransports.isRecording(transportConfig);
+        String spillFolder = config.getString("variable-spill-folder", "");
+        variableExecution = new VariableStore.Execution(config.getLong("variable-spill-threshold", 0),
+                StringUtils.isBlank(spillFolder) ? null : Paths.get(spillFolder), config.getInt("variable-dictionary-threshold", 0));
+        responseCache = null;
+        if (!config.configurationsAt("response-cache").isEmpty()) {
+            HierarchicalConfiguration cacheConfig = config.configurationAt("response-cache");
+            responseCacheTtl = cacheConfig.getLong("ttl", 300000);
+            try {
+                responseCache = ResponseCaches.get(cacheConfig);
+            } catch (IOException | IllegalArgumentException e) {
+                log.error("The response cache could not be created, responses are not cached.", e);
+            }
+        }
+        breakerSettings = null;
+        if (!config.configurationsAt("circuit-breaker").isEmpty()) {
+            breakerSettings = new CircuitBreaker.Settings(config.getInt("circuit-breaker/failure-rate", 50),
+                    config.getInt("circuit-breaker/slow-call-rate", 100), config.getLong("circuit-breaker/slow-call-duration", 10000),
+                    config.getInt("circuit-breaker/window-size", 20), config.getInt("circuit-breaker/minimum-calls", 10),
+                    config.getLong("circuit-breaker/open-duration", 60000), config.getInt("circuit-breaker/probe-calls", 3));
+        }
 
-        // initialize the static variable map in AlmaApiCommand, which will be needed to create new AlmaApiCommand instances
         List<HierarchicalConfiguration> variableConfigs = config.configurationsAt("variable");
+        List<HierarchicalConfiguration> commandConfigs = config.configurationsAt("command");
+        List<HierarchicalConfiguration> saveConfigs = config.configurationsAt("save");
+
+        // check the commands before anything is requested, so that mistakes do not cause wasted requests or partial changes
+        CommandPlanValidator validator = CommandPlanValidator.validate(variableConfigs, commandConfigs, saveConfigs);
+        configurationErrors = validator.getErrors();
+        for (String warning : validator.getWarnings()) {
+            log.warn(warning);
+        }
+
+        // the metadata file and the ruleset are only needed if any Goobi variable or save entry uses metadata
+        boolean metadataNeeded = analyseConfiguration(variableConfigs, commandConfigs, saveConfigs);
+        if (metadataNeeded && !deferMetadataRead) {
+            readMetadata();
+        }
+
+        // initialize the static variable map in AlmaApiCommand, which will be needed to create new AlmaApiCommand instances
         initializeVariablesMap(variableConfigs);
 
         // initialize the list of all commands that will be run
-        List<HierarchicalConfiguration> commandConfigs = config.configurationsAt("command");
         for (HierarchicalConfiguration commandConfig : commandConfigs) {
             commandList.add(new AlmaApiCommand(commandConfig));
         }
 
         // initialize the list of all entries that will be saved after running all commands
-        List<HierarchicalConfiguration> saveConfigs = config.configurationsAt("save");
         for (HierarchicalConfiguration saveConfig : saveConfigs) {
             String saveType = saveConfig.getString("@type");
             String saveName = saveConfig.getString("@name");
             String saveValue = saveConfig.getString("@value");
             String saveChoice = saveConfig.getString("@choice", "");
             boolean overwrite = saveConfig.getBoolean("@overwrite", false);
+            boolean stream = saveConfig.getBoolean("@stream", false);
             Map<String, String> groupMetadataMap = null;
             if ("group".equals(saveType)) {
                 groupMetadataMap = new HashMap<>();
@@ -182,13 +334,122 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
                     groupMetadataMap.put(hc.getString("@name"), hc.getString("@path"));
                 }
             }
-            entriesToSaveList.add(new EntryToSaveTemplate(saveType, saveName, saveValue, saveChoice, overwrite, groupMetadataMap));
+            EntryToSaveTemplate entry = new EntryToSaveTemplate(saveType, saveName, saveValue, saveChoice, overwrite, groupMetadataMap, stream);
+            if (isMetadataEntry(saveType)) {
+                // resolve all metadata types once, instead of looking them up for every value that is saved
+                entry.resolveTypes(getPrefs());
+            }
+            entriesToSaveList.add(entry);
         }
 
         String message = "AlmaApi step plugin initialized.";
         logBoth(processId, LogType.INFO, message);
     }
 
+    /**
+     * find out which Goobi variables are used in the configuration, and whether the metadata file is needed at all
+     * 
+     * @param variableConfigs configurations of all variables
+     * @param commandConfigs configurations of all commands
+     * @param saveConfigs configurations of all save entries
+     * @return true if any Goobi variable or save entry needs the metadata file, false otherwise
+     */
+    private boolean analyseConfiguration(List<HierarchicalConfiguration> variableConfigs, List<HierarchicalConfiguration> commandConfigs,
+            List<HierarchicalConfiguration> saveConfigs) {
+        goobiVariableNamespaces = new HashSet<>();
+        for (HierarchicalConfiguration variableConfig : variableConfigs) {
+            goobiVariableNamespaces.addAll(VariableNamespaces.getNamespaces(variableConfig.getString("@value")));
+            goobiVariableNamespaces.addAll(VariableNamespaces.getNamespaces(variableConfig.getString("@conditionField")));
+        }
+        for (HierarchicalConfiguration commandConfig : commandConfigs) {
+            goobiVariableNamespaces.addAll(VariableNamespaces.getNamespaces(commandConfig.getString("@filename")));
+            goobiVariableNamespaces.addAll(VariableNamespaces.getNamespaces(commandConfig.getString("body/@value")));
+            goobiVariableNamespaces.addAll(VariableNamespaces.getNamespaces(commandConfig.getString("body/@src")));
+        }
+        boolean metadataSaved = false;
+        for (HierarchicalConfiguration saveConfig : saveConfigs) {
+            metadataSaved = metadataSaved || isMetadataEntry(saveConfig.getString("@type"));
+        }
+
+        boolean metadataNeeded = metadataSaved || VariableNamespaces.requiresMetadata(goobiVariableNamespaces);
+        log.debug("Goobi variable namespaces used: " + goobiVariableNamespaces + ", metadata file needed: " + metadataNeeded);
+        return metadataNeeded;
+    }
+
+    /**
+     * check whether a save entry of the input type is saved as metadata
+     * 
+     * @param saveType type of the save entry
+     * @return true if the type is metadata or group, false otherwise
+     */
+    private boolean isMetadataEntry(String saveType) {
+        return "metadata".equalsIgnoreCase(saveType) || "group".equalsIgnoreCase(saveType);
+    }
+
+    /**
+     * read the metadata file of the process and prepare the VariableReplacer
+     */
+    private void readMetadata() {
+        metadataRead = true;
+        try {
+            fileformat = process.readMetadataFile();
+            DigitalDocument dd = fileformat.getDigitalDocument();
+            replacer = new VariableReplacer(dd, getPrefs(), process, step);
+        } catch (UGHException | IOException | SwapException e) {
+            log.error(e);
+        }
+    }
+
+    /**
+     * get the Prefs of the ruleset, which will be loaded if this has not happened yet
+     * 
+     * @return Prefs
+     */
+    private Prefs getPrefs() {
+        if (prefs == null) {
+            prefs = process.getRegelsatz().getPreferences();
+        }
+        return prefs;
+    }
+
+    /**
+     * get the Fileformat of the process, which will be read if this has not happened yet
+     * 
+     * @return Fileformat
+     */
+    private Fileformat getFileformat() {
+        if (!metadataRead) {
+            readMetadata();
+        }
+        return fileformat;
+    }
+
+    /**
+     * replace all Goobi variables in the input string
+     * 
+     * @param value string that may contain Goobi variables
+     * @return value with all Goobi variables replaced
+     */
+    private String replaceGoobiVariables(String value) {
+        Set<String> namespaces = VariableNamespaces.getNamespaces(value);
+        if (namespaces.isEmpty()) {
+            // there is nothing to replace
+            return value;
+        }
+        if (!metadataRead && VariableNamespaces.requiresMetadata(namespaces)) {
+            readMetadata();
+        }
+        if (replacer != null) {
+            return replacer.replace(value);
+        }
+
+        // no metadata needed so far, hence use a VariableReplacer that works without the metadata file and the ruleset
+        if (processReplacer == null) {
+            processReplacer = new VariableReplacer(null, null, process, step);
+        }
+        return processReplacer.replace(value);
+    }
+
     /**
      * initialize the static variables map in AlmaApiCommand, which will be used during creations of AlmaApiCommand objects
      * 
@@ -205,7 +466,7 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
             boolean conditionMatched = false;
 
             if (StringUtils.isNotBlank(conditionField)) {
-                String actualValue = replacer.replace(conditionField);
+                String actualValue = replaceGoobiVariables(conditionField);
 
                 switch (conditionType) {
                     case "is":
@@ -239,7 +500,7 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
             }
 
             if (conditionMatched) {
-                boolean staticVariablesUpdated = AlmaApiCommand.updateStaticVariablesMap(variableName, variableValue);
+                boolean staticVariablesUpdated = AlmaApiCommand.updateStaticVariablesMap(variableName, variableValue, variableExecution);
                 if (staticVariablesUpdated) {
                     log.info("Static variable added: " + variableName + " -> " + variableValue);
                 } else {
@@ -264,7 +525,7 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
 
         String value = variableConfig.getString("@value");
 
-        return replacer.replace(value);
+        return replaceGoobiVariables(value);
 
     }
 
@@ -311,37 +572,196 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
 
     @Override
     public PluginReturnValue run() {
+        try {
+            return runCommandsAndSave();
+        } finally {
+            // neither the listeners nor the temporary files of spilled variables must outlive the run, even if it stopped early
+            AlmaApiCommand.getVARIABLE_STORE().release(variableExecution);
+        }
+    }
+
+    /**
+     * run all commands and save all entries
+     * 
+     * @return PluginReturnValue
+     */
+    private PluginReturnValue runCommandsAndSave() {
+        if (!configurationErrors.isEmpty()) {
+            for (String error : configurationErrors) {
+                logBoth(processId, LogType.ERROR, error);
+            }
+            return PluginReturnValue.ERROR;
+        }
+        try {
+            // a dry run sends nothing, and must not replace a recording either
+            transport = dryRun ? null : createTransport();
+        } catch (IOException | IllegalArgumentException e) {
+            logBoth(processId, LogType.ERROR, "The transport could not be created: " + e.getMessage());
+            log.error(e);
+            return PluginReturnValue.ERROR;
+        }
         boolean successful = true;
+        existingMetadataIndex = null;
+        metadataChanged = false;
+        stepDeadlineAt = getDeadlineAt(stepDeadline);
+        requestBytes.set(0);
+        requestWireBytes.set(0);
+        responseBytes.set(0);
+        responseWireBytes.set(0);
+        cacheHits.set(0);
+        cacheMisses.set(0);
+        responseArchive = new ResponseArchive(archiveQueueSize);
+        requestPlan = dryRun ? new RequestPlan() : null;
+        archivedResponses = dryRun && dryRunReplay ? new ArchivedResponses() : null;
+        // a dry run neither resumes nor records anything
+        restoredVariables.clear();
+        journal = dryRun ? null : openJournal();
+        idempotencyStore = StringUtils.isBlank(idempotencyStorePath) ? null
+                : new IdempotencyStore(Paths.get(replaceGoobiVariables(idempotencyStorePath)), idempotencyTtl);
+        propertyBatch = new ProcessPropertyBatch(processId);
+        // variables restored from the journal were saved by the previous run already, hence subscribe only now
+        streamedEntriesSaved = true;
+        for (EntryToSaveTemplate entry : entriesToSaveList) {
+            if (entry.isStream() && !dryRun) {
+                String key = AlmaApiCommand.wrapKey(entry.getValue());
+                variableExecution.subscribe(key, (k, variable) -> saveStreamedEntry(entry, variable));
+                // a variable that is already bound, e.g. by a <variable> element, may never be put again during the run
+                VariableStore.Variable bound = AlmaApiCommand.getVARIABLE_STORE().get(key);
+                if (bound != null && variableExecution.hasPut(key) && !restoredVariables.contains(key)) {
+                    saveStreamedEntry(entry, bound);
+                }
+            }
+        }
         // your logic goes here
-        for (AlmaApiCommand command : commandList) {
-            successful = successful && prepareAndRunCommand(command); //NOSONAR
+        for (int i = 0; i < commandList.size(); ++i) {
+            if (journal != null && journal.isCommandCompleted(i)) {
+                log.debug("Skipping command " + i + ", which was completed by a previous run.");
+                continue;
+            }
+            successful = successful && prepareAndRunCommand(i, commandList.get(i)); //NOSONAR
         }
 
+        if (breakerSettings != null) {
+            for (CircuitBreaker breaker : CircuitBreaker.getAll()) {
+                log.info("Circuit breaker " + breaker.getName() + ": " + breaker.getMetrics());
+            }
+        }
+        if (commandList.stream().anyMatch(AlmaApiCommand::isHedge)) {
+            for (HedgingPolicy policy : HedgingPolicy.getAll()) {
+                log.info("Hedging policy " + policy.getName() + ": " + policy.getMetrics());
+            }
+        }
+        if (coalesceGetRequests) {
+            log.info("Coalesced GET requests: " + GET_REQUESTS.getMetrics());
+        }
+        if (responseCache != null) {
+            log.info("Response cache: " + cacheHits.get() + " hits, " + cacheMisses.get() + " misses.");
+        }
+        log.info("Requests: " + requestBytes.get() + " bytes, " + requestWireBytes.get() + " bytes sent. Responses: " + responseBytes.get()
+                + " bytes, " + responseWireBytes.get() + " bytes received.");
+
+        // make sure that all responses are written before the run is finished
+        if (!responseArchive.close()) {
+            logBoth(processId, LogType.ERROR, "Failed to archive some responses.");
+            successful = false;
+        }
+
+        variableExecution.unsubscribeAll();
+        if (requestPlan != null) {
+            for (String line : requestPlan.getSummary()) {
+                log.info(line);
+            }
+            logBoth(processId, LogType.INFO, "AlmaApi step plugin finished a dry run, no request was sent and nothing was saved.");
+            return successful ? PluginReturnValue.FINISH : PluginReturnValue.ERROR;
+        }
+        successful = successful && streamedEntriesSaved; //NOSONAR
         for (EntryToSaveTemplate entry : entriesToSaveList) {
-            successful = successful && saveEntry(entry); //NOSONAR
+            // streamed entries were saved while the commands were running
+            successful = successful && (entry.isStream() || saveEntry(entry)); //NOSONAR
         }
+        // write all process properties collected by the save entries at once
+        if (!propertyBatch.flush()) {
+            logBoth(processId, LogType.ERROR, "Not all process properties could be saved.");
+            successful = false;
+        }
+        log.info("Process properties saved with " + propertyBatch.getDatabaseRoundTrips() + " database round trips.");
 
+        // a successful run has nothing left to resume
+        if (journal != null) {
+            journal.close(successful);
+        }
+        if (idempotencyStore != null && successful) {
+            idempotencyStore.clear();
+        }
         String message = "AlmaApi step plugin executed.";
         logBoth(processId, LogType.INFO, message);
 
-        // write
-        try {
-            process.writeMetadataFile(fileformat);
-        } catch (UGHException | IOException | SwapException e) {
-            log.error(e);
+        // write the metadata file only if any metadata was modified, since this rewrites the whole file including its backups
+        if (metadataChanged) {
+            try {
+                process.writeMetadataFile(fileformat);
+            } catch (UGHException | IOException | SwapException e) {
+                log.error(e);
+            }
+        } else {
+            log.debug("No metadata changed, skip writing the metadata file.");
         }
 
         return successful ? PluginReturnValue.FINISH : PluginReturnValue.ERROR;
     }
 
+    /**
+     * create the transport configured in the transport block, which reads GET responses via HttpUtils in the test mode
+     * 
+     * @return HttpTransport
+     * @throws IOException if a recording could not be started or read
+     */
+    private HttpTransport createTransport() throws IOException {
+        String file = transportConfig == null ? "" : transportConfig.getString("file", "");
+        HttpTransport configured = HttpTransports.create(transportConfig, StringUtils.isBlank(file) ? null : Paths.get(replaceGoobiVariables(file)));
+        return testmode ? new HttpUtilsTransport(configured) : configured;
+    }
+
+    /**
+     * open the journal of completed commands and restore all variables created by them
+     * 
+     * @return CommandJournal, or null if no journal is configured or it could not be opened
+     */
+    private CommandJournal openJournal() {
+        if (StringUtils.isBlank(journalPath)) {
+            return null;
+        }
+        // the journal of a previous run may only be used if the commands are still the same
+        List<String> commandDescriptions = new ArrayList<>();
+        for (AlmaApiCommand command : commandList) {
+            commandDescriptions.add(command.getMethod() + " " + command.getRawEndpoint());
+        }
+        String fingerprint = Fingerprint.of(url, String.join("\n", commandDescriptions));
+
+        try {
+            CommandJournal commandJournal = CommandJournal.open(Paths.get(replaceGoobiVariables(journalPath)), fingerprint);
+            for (Map.Entry<String, List<Object>> variable : commandJournal.getRestoredVariables().entrySet()) {
+                AlmaApiCommand.updateStaticVariablesMap(variable.getKey(), variable.getValue(), variableExecution);
+                restoredVariables.add(AlmaApiCommand.wrapKey(variable.getKey()));
+            }
+            return commandJournal;
+        } catch (IOException e) {
+            logBoth(processId, LogType.WARN, "Failed to open the journal, all commands will be run: " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * prepare a command and run it
      * 
+     * @param commandIndex index of the command in the configuration
      * @param command AlmaApiCommand
      * @return true if the command is successfully run, false if any exception occurred
      */
-    private boolean prepareAndRunCommand(AlmaApiCommand command) {
+    private boolean prepareAndRunCommand(int commandIndex, AlmaApiCommand command) {
         try {
+            long deadline = command.getDeadline() >= 0 ? command.getDeadline() : commandDeadline;
+            commandDeadlineAt = getDeadlineAt(deadline);
             // update endpoints
             command.updateAllEndpoints();
             // prepare the command
@@ -349,7 +769,7 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
             String bodyValue = command.getBodyValue();
             log.debug("bodyValue = \n" + bodyValue);
 
-            bodyValue = replacer.replace(bodyValue);
+            bodyValue = replaceGoobiVariables(bodyValue);
             boolean isJson = command.getHeaderContentType().contains("json");
             // replace variables in file {$MMS_ID} -> 99724 ....
             for (Matcher m = Pattern.compile("(\\{\\$[^\\{\\}]*\\})").matcher(bodyValue); m.find();) {
@@ -360,52 +780,40 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
 
             Map<String, String> parameters = command.getParametersMap();
             List<String> endpoints = command.getEndpoints();
-            List<Target> targetVariablePathList = command.getTargets();
-
-            String updateVariableName = command.getUpdateVariableName();
+            Set<String> filterValues = command.getFilter() == null ? null : command.getFilterValues();
+            if (requestPlan != null) {
+                requestPlan.startCommand(command.getMethod() + " " + command.getRawEndpoint(), endpoints.size());
+            }
             for (String endpoint : endpoints) {
-                // run the command to get the JSONObject
-                String requestUrl = createRequestUrl(endpoint, parameters);
-                Object jsonObject = runCommand(command, requestUrl, bodyValue);
-                if (jsonObject == null) {
+                if (journal != null && journal.isEndpointCompleted(commandIndex, endpoint)) {
+                    log.debug("Skipping endpoint " + endpoint + ", which was completed by a previous run.");
                     continue;
                 }
-
-                // jsonObject is not null, process it
-                // <filter> and <target>
-                Map<String, List<Object>> filteredTargetsMap = JSONUtils.getFilteredValuesFromSource(targetVariablePathList, jsonObject);
-
-                for (Map.Entry<String, List<Object>> filteredTargets : filteredTargetsMap.entrySet()) {
-                    String targetVariable = filteredTargets.getKey();
-                    List<Object> filteredValues = filteredTargets.getValue();
-                    if (filteredValues.isEmpty()) {
-                        log.debug("no match found");
-                    }
-                    // save the filteredValues
-                    List<Object> targetValues = new ArrayList<>();
-                    filteredValues.stream().filter(Objects::nonNull).forEach(obj -> {
-                        if (obj.getClass().isArray() || obj instanceof Collection) {
-                            List<Object> objectValues = new ArrayList<>((Collection<?>) obj);
-                            targetValues.addAll(objectValues);
-                        } else {
-                            targetValues.add(obj);
-                        }
-                    });
-
-                    boolean staticVariablesUpdated = AlmaApiCommand.updateStaticVariablesMap(targetVariable, targetValues);
-                    if (!staticVariablesUpdated) {
-                        log.debug("static variables map was not successfully updated");
+                if (command.getPagination() != null && "get".equalsIgnoreCase(command.getMethod())) {
+                    processPages(command, endpoint, parameters, filterValues);
+                    if (journal != null) {
+                        journal.endpointCompleted(commandIndex, endpoint, getVariablesOfCommand(command));
                     }
+                    continue;
                 }
-
-                if (StringUtils.isNotBlank(updateVariableName) && !command.getUpdateVariablePathValueMap().isEmpty()) {
-                    JSONUtils.updateJsonObject(command.getUpdateVariablePathValueMap(), jsonObject);
+                // run the command to get the JSONObject
+                String requestUrl = createRequestUrl(endpoint, parameters);
+                // the API key is not part of the fingerprint, so that a changed key does not cause requests to be sent twice
+                String fingerprint = IdempotencyStore.getFingerprint(command.getMethod(), endpoint, parameters, bodyValue);
+                Object response = runCommand(command, requestUrl, bodyValue, fingerprint);
+                if (response instanceof ResponseBody) {
+                    processXmlResponse(command, (ResponseBody) response);
+                } else if (response != null) {
+                    processResponse(command, response, filterValues);
                 }
-                boolean staticVariablesUpdated = AlmaApiCommand.updateStaticVariablesMap(updateVariableName, jsonObject);
-                if (!staticVariablesUpdated) {
-                    log.debug("static variables map was not successfully updated");
+
+                if (journal != null) {
+                    journal.endpointCompleted(commandIndex, endpoint, getVariablesOfCommand(command));
                 }
             }
+            if (journal != null) {
+                journal.commandCompleted(commandIndex);
+            }
             return true;
 
         } catch (Exception e) {
@@ -418,6 +826,326 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
 
     }
 
+    /**
+     * request all pages of a list endpoint, and save the targets found in all pages as variables
+     * 
+     * @param command AlmaApiCommand with pagination
+     * @param endpoint endpoint with all variables replaced
+     * @param parameters parameters configured for the command
+     * @param filterValues values that the filter key is compared with, null if the command has no filter
+     * @throws IOException
+     */
+    private void processPages(AlmaApiCommand command, String endpoint, Map<String, String> parameters, Set<String> filterValues)
+            throws IOException {
+        Pagination pagination = command.getPagination();
+        boolean xml = command.getHeaderAccept().endsWith("xml");
+        JSONFilter filter = xml ? null : command.getFilter();
+        if (xml && command.getFilter() != null) {
+            log.warn("Filters are only applied to JSON responses, the filter of " + command.getRawEndpoint() + " is ignored.");
+        }
+        // with the alternative option first only one match is needed, hence no further pages are requested after a page with a match
+        boolean stopAtFirstMatch = filter != null && "first".equals(filter.getAlternativeOption());
+
+        Map<String, List<Object>> matchedValues = new LinkedHashMap<>();
+        // values selected by the alternative option of the filter, only used if no page contains any match
+        Map<String, List<Object>> alternativeValues = null;
+        // number of candidates in all pages without a match so far
+        long alternativeCandidates = 0;
+        boolean matched = false;
+        Object lastDocument = null;
+
+        ResponseBody page = fetchPage(command, endpoint, pagination.getPageParameters(parameters, 0), null);
+        Deque<Future<ResponseBody>> pendingPages = new ArrayDeque<>();
+        Map<Future<ResponseBody>, PageRequests> pageRequests = new HashMap<>();
+        Iterator<Integer> remainingOffsets = null;
+        try {
+            for (int pageIndex = 0; page != null; ++pageIndex) {
+                if (command.isSaveResponse() && !testmode) {
+                    storeResponse(command, page);
+                }
+                Object document = xml ? page : JSONUtils.getJSONObjectFromResponse(page);
+                lastDocument = document;
+
+                Map<String, List<Object>> pageValues;
+                long total;
+                if (xml) {
+                    List<Target> targets = new ArrayList<>(command.getTargets());
+                    targets.add(new Target(TOTAL_VARIABLE, pagination.getTotalPath(), "string"));
+                    try {
+                        pageValues = XMLTargetEvaluator.evaluate(targets, page.newInputStream(), page.getCharset().name());
+                    } catch (XMLStreamException e) {
+                        throw new IOException("Response of " + command.getRawEndpoint() + " is not well-formed XML: " + e.getMessage(), e);
+                    }
+                    total = Pagination.parseTotal(pageValues.remove(TOTAL_VARIABLE));
+                } else {
+                    total = Pagination.parseTotal(JSONUtils.getValuesFromSourceGeneral(pagination.getTotalPath(), document));
+                    pageValues = filter == null ? JSONUtils.getFilteredValuesFromSource(command.getTargets(), document)
+                            : filter.getFilteredValues(command.getTargets(), document, filterValues, "none");
+                }
+
+                if (filter != null && !hasAnyValue(pageValues)) {
+                    if (!matched) {
+                        // the random alternative weights every page by its number of candidates, so that all candidates are equally likely
+                        boolean randomAlternative = "random".equals(filter.getAlternativeOption());
+                        int candidates = randomAlternative ? filter.getCandidateCount(command.getTargets(), document) : 0;
+                        alternativeCandidates += candidates;
+                        alternativeValues = selectAlternativeValues(alternativeValues, filter, command.getTargets(), document, filterValues,
+                                candidates, alternativeCandidates);
+                    }
+                } else {
+                    matched = true;
+                    appendValues(matchedValues, pageValues);
+                }
+                if (matched && stopAtFirstMatch) {
+                    log.debug("Filter matched in page " + (pageIndex + 1) + ", no further pages are requested.");
+                    break;
+                }
+
+                if (remainingOffsets == null) {
+                    // the total number of records is only read from the first page
+                    if (total < 0) {
+                        log.warn("No total number of records found at " + pagination.getTotalPath() + ", only the first page of " + endpoint
+                                + " is used.");
+                    }
+                    remainingOffsets = pagination.getRemainingOffsets(Math.max(total, 0)).iterator();
+                    log.debug("Requesting " + total + " records of " + endpoint + " in pages of " + pagination.getLimit());
+                }
+                // keep the configured number of page requests running
+                while (pendingPages.size() < pagination.getPrefetch() && remainingOffsets.hasNext()) {
+                    Map<String, String> pageParameters = pagination.getPageParameters(parameters, remainingOffsets.next());
+                    if (requestPlan != null) {
+                        // a dry run replays archived pages in the order they were archived, hence they are not requested in parallel
+                        pendingPages.add(CompletableFuture.completedFuture(fetchPage(command, endpoint, pageParameters, null)));
+                    } else {
+                        PageRequests requests = new PageRequests();
+                        Future<ResponseBody> pendingPage = PAGE_EXECUTOR.submit(() -> fetchPage(command, endpoint, pageParameters, requests));
+                        pendingPages.add(pendingPage);
+                        pageRequests.put(pendingPage, requests);
+                    }
+                }
+                Future<ResponseBody> nextPage = pendingPages.poll();
+                pageRequests.remove(nextPage);
+                page = nextPage == null ? null : getPage(nextPage);
+            }
+        } finally {
+            // pages that are not needed anymore after a match or a failure
+            for (Future<ResponseBody> pendingPage : pendingPages) {
+                pendingPage.cancel(true);
+                PageRequests requests = pageRequests.get(pendingPage);
+                if (requests != null) {
+                    requests.abort();
+                }
+            }
+        }
+
+        saveTargets(matched || filter == null || alternativeValues == null ? matchedValues : alternativeValues);
+
+        // the update variable holds the last page that was requested
+        String updateVariableName = command.getUpdateVariableName();
+        if (StringUtils.isNotBlank(updateVariableName) && lastDocument != null) {
+            if (xml) {
+                AlmaApiCommand.updateStaticVariablesMap(updateVariableName, ((ResponseBody) lastDocument).asString(), variableExecution);
+            } else {
+                if (!command.getUpdateVariablePathValueMap().isEmpty()) {
+                    JSONUtils.updateJsonObject(command.getUpdateVariablePathValueMap(), lastDocument);
+                }
+                AlmaApiCommand.updateStaticVariablesMap(updateVariableName, lastDocument, variableExecution);
+            }
+        }
+    }
+
+    /**
+     * request a single page
+     * 
+     * @param command AlmaApiCommand
+     * @param endpoint endpoint with all variables replaced
+     * @param pageParameters parameters including offset and limit
+     * @param requests collects the requests sent for the page, so that they can be aborted, may be null
+     * @return body of the response
+     * @throws IOException
+     */
+    private ResponseBody fetchPage(AlmaApiCommand command, String endpoint, Map<String, String> pageParameters, PageRequests requests)
+            throws IOException {
+        String requestUrl = createRequestUrl(endpoint, pageParameters);
+        if (requestPlan != null) {
+            return planRequest(command, requestUrl, null);
+        }
+        return fetchSharedGetResponse(command, requestUrl, requests).getBody();
+    }
+
+    private static ResponseBody getPage(Future<ResponseBody> page) throws IOException {
+        try {
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a page.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * update the values selected by the alternative option of a filter with a page that contains no match
+     * 
+     * @param previous values selected from the previous pages, null for the first page
+     * @param filter JSONFilter
+     * @param targets list of targets
+     * @param document current page
+     * @param filterValues values that the filter key is compared with
+     * @param candidates number of candidates in the current page, only needed for the alternative option random
+     * @param allCandidates number of candidates in all pages so far including the current one, only needed for the alternative option random
+     * @return values selected from all pages so far
+     */
+    private Map<String, List<Object>> selectAlternativeValues(Map<String, List<Object>> previous, JSONFilter filter, List<Target> targets,
+            Object document, Set<String> filterValues, int candidates, long allCandidates) {
+        String alternative = filter.getAlternativeOption();
+        switch (alternative) {
+            case "all":
+                Map<String, List<Object>> all = previous == null ? new LinkedHashMap<>() : previous;
+                appendValues(all, filter.getFilteredValues(targets, document, filterValues, alternative));
+                return all;
+            case "first":
+                return previous != null ? previous : filter.getFilteredValues(targets, document, filterValues, alternative);
+            case "last":
+            case "random":
+                Map<String, List<Object>> values = filter.getFilteredValues(targets, document, filterValues, alternative);
+                if (!hasAnyValue(values)) {
+                    return previous;
+                }
+                // for random a page replaces the previous selection with the share of its candidates among all candidates so far
+                boolean replace = "last".equals(alternative) || previous == null || random.nextDouble() * allCandidates < candidates;
+                return replace ? values : previous;
+            default:
+                return previous;
+        }
+    }
+
+    private static boolean hasAnyValue(Map<String, List<Object>> values) {
+        for (List<Object> list : values.values()) {
+            if (!list.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void appendValues(Map<String, List<Object>> values, Map<String, List<Object>> additionalValues) {
+        for (Map.Entry<String, List<Object>> entry : additionalValues.entrySet()) {
+            values.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).addAll(entry.getValue());
+        }
+    }
+
+    /**
+     * process the response of a command, i.e. apply the filter, save all targets and the maybe updated response as variables
+     * 
+     * @param command AlmaApiCommand
+     * @param jsonObject parsed response
+     * @param filterValues values that the filter key is compared with, null if no filter is configured
+     */
+    private void processResponse(AlmaApiCommand command, Object jsonObject, Set<String> filterValues) {
+        List<Target> targetVariablePathList = command.getTargets();
+        String updateVariableName = command.getUpdateVariableName();
+        JSONFilter filter = command.getFilter();
+        // <filter> and <target>
+        Map<String, List<Object>> filteredTargetsMap = filter == null
+                ? JSONUtils.getFilteredValuesFromSource(targetVariablePathList, jsonObject)
+                : filter.getFilteredValues(targetVariablePathList, jsonObject, filterValues);
+        saveTargets(filteredTargetsMap);
+
+        if (StringUtils.isNotBlank(updateVariableName) && !command.getUpdateVariablePathValueMap().isEmpty()) {
+            JSONUtils.updateJsonObject(command.getUpdateVariablePathValueMap(), jsonObject);
+        }
+        boolean staticVariablesUpdated = AlmaApiCommand.updateStaticVariablesMap(updateVariableName, jsonObject, variableExecution);
+        if (!staticVariablesUpdated) {
+            log.debug("static variables map was not successfully updated");
+        }
+    }
+
+    /**
+     * process an XML response of a command, i.e. save all targets, whose paths are XPath expressions, and the response itself as variables
+     * 
+     * @param command AlmaApiCommand
+     * @param responseBody XML response
+     * @throws IOException if the response is not well-formed XML
+     */
+    private void processXmlResponse(AlmaApiCommand command, ResponseBody responseBody) throws IOException {
+        if (command.getFilter() != null) {
+            log.warn("Filters are only applied to JSON responses, the filter of " + command.getRawEndpoint() + " is ignored.");
+        }
+        try {
+            saveTargets(XMLTargetEvaluator.evaluate(command.getTargets(), responseBody.newInputStream(), responseBody.getCharset().name()));
+        } catch (XMLStreamException e) {
+            throw new IOException("Response of " + command.getRawEndpoint() + " is not well-formed XML: " + e.getMessage(), e);
+        }
+
+        String updateVariableName = command.getUpdateVariableName();
+        if (StringUtils.isNotBlank(updateVariableName)) {
+            if (!command.getUpdateVariablePathValueMap().isEmpty()) {
+                log.warn("Update entries are only applied to JSON responses, the XML response is saved unchanged.");
+            }
+            AlmaApiCommand.updateStaticVariablesMap(updateVariableName, responseBody.asString(), variableExecution);
+        }
+    }
+
+    /**
+     * save the values of all targets as variables
+     * 
+     * @param filteredTargetsMap map of variable names to the values of the targets
+     */
+    private void saveTargets(Map<String, List<Object>> filteredTargetsMap) {
+        for (Map.Entry<String, List<Object>> filteredTargets : filteredTargetsMap.entrySet()) {
+            String targetVariable = filteredTargets.getKey();
+            List<Object> filteredValues = filteredTargets.getValue();
+            if (filteredValues.isEmpty()) {
+                log.debug("no match found");
+            }
+            // save the filteredValues
+            List<Object> targetValues = new ArrayList<>();
+            filteredValues.stream().filter(Objects::nonNull).forEach(obj -> {
+                if (obj.getClass().isArray() || obj instanceof Collection) {
+                    List<Object> objectValues = new ArrayList<>((Collection<?>) obj);
+                    targetValues.addAll(objectValues);
+                } else {
+                    targetValues.add(obj);
+                }
+            });
+
+            boolean staticVariablesUpdated = AlmaApiCommand.updateStaticVariablesMap(targetVariable, targetValues, variableExecution);
+            if (!staticVariablesUpdated) {
+                log.debug("static variables map was not successfully updated");
+            }
+        }
+    }
+
+    /**
+     * get the current values of all variables that are created or updated by a command
+     * 
+     * @param command AlmaApiCommand
+     * @return map of wrapped variable names and their values
+     */
+    private Map<String, List<Object>> getVariablesOfCommand(AlmaApiCommand command) {
+        List<String> names = new ArrayList<>();
+        for (Target target : command.getTargets()) {
+            names.add(target.getVariableName());
+        }
+        if (StringUtils.isNotBlank(command.getUpdateVariableName())) {
+            names.add(command.getUpdateVariableName());
+        }
+
+        Map<String, List<Object>> variables = new HashMap<>();
+        for (String name : names) {
+            String wrappedKey = AlmaApiCommand.wrapKey(name);
+            List<Object> values = AlmaApiCommand.getVariableRawValues(wrappedKey);
+            if (values != null) {
+                variables.put(wrappedKey, values);
+            }
+        }
+        return variables;
+    }
+
     /**
      * save the entry value as process property or metadata
      * 
@@ -443,10 +1171,49 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
         } catch (UGHException e) {
             log.error(e);
             return false;
+        } catch (UncheckedIOException e) {
+            // the value of a spilled variable could not be read again
+            logBoth(processId, LogType.ERROR, e.getMessage());
+            log.error(e);
+            return false;
         }
         return true;
     }
 
+    /**
+     * save the new value of a variable that a streamed entry subscribed to, so that every value is saved and not only the last one. The variable
+     * itself stays in the variable store, since later commands may still use it.
+     * 
+     * @param entry EntryToSaveTemplate with stream="true"
+     * @param variable the updated variable
+     */
+    private void saveStreamedEntry(EntryToSaveTemplate entry, VariableStore.Variable variable) {
+        try {
+            switch (entry.getType().toLowerCase()) {
+                case "property":
+                    for (String value : variable.getStrings(false)) {
+                        saveProp(entry, entry.getName(), value);
+                    }
+                    break;
+                case "metadata":
+                    DocStruct logical = getFileformat().getDigitalDocument().getLogicalDocStruct();
+                    for (String value : variable.getStrings(false)) {
+                        addMetadata(entry.getMetadataType(), logical, value);
+                    }
+                    break;
+                case "group":
+                    addMetadataGroups(entry, getFileformat().getDigitalDocument().getLogicalDocStruct(), variable.getValues());
+                    break;
+                default:
+                    log.warn("Ignoring unknown entry type: " + entry.getType() + ".");
+            }
+        } catch (UGHException | UncheckedIOException e) {
+            logBoth(processId, LogType.ERROR, "Failed to save " + entry.getName() + ": " + e.getMessage());
+            log.error(e);
+            streamedEntriesSaved = false;
+        }
+    }
+
     /**
      * save process properties
      * 
@@ -472,35 +1239,8 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
 
     private void saveProp(EntryToSaveTemplate propertyTemplate, String propertyName, String propertyValue) {
         log.debug("property value to be saved: " + propertyValue);
-        // get the Processproperty object
-        Processproperty propertyObject = getProcesspropertyObject(propertyName, propertyTemplate.isOverwrite());
-        propertyObject.setWert(propertyValue);
-        PropertyManager.saveProcessProperty(propertyObject);
-    }
-
-    /**
-     * get the Processproperty object
-     * 
-     * @param title title of the Processproperty object
-     * @param overwrite true if an existing old Processproperty object should be used, false if a new one should be created no matter what
-     * @return the Processproperty object that is to be saved
-     */
-    private Processproperty getProcesspropertyObject(String title, boolean overwrite) {
-        if (overwrite) {
-            // try to retrieve the old object first
-            List<Processproperty> props = PropertyManager.getProcessPropertiesForProcess(processId);
-            for (Processproperty p : props) {
-                if (title.equals(p.getTitel())) {
-                    return p;
-                }
-            }
-        }
-        // otherwise, create a new one
-        Processproperty property = new Processproperty();
-        property.setTitel(title);
-        property.setProcessId(processId);
-
-        return property;
+        // the property is only changed in memory here, it will be written when the batch is flushed at the end of the save stage
+        propertyBatch.setProperty(propertyName, propertyValue, propertyTemplate.isOverwrite());
     }
 
     /**
@@ -513,58 +1253,83 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
     private void saveMetadata(EntryToSaveTemplate metadataTemplate) throws UGHException {
         String mdTypeName = metadataTemplate.getName();
 
-        DigitalDocument digital = fileformat.getDigitalDocument();
+        DigitalDocument digital = getFileformat().getDigitalDocument();
         DocStruct logical = digital.getLogicalDocStruct();
         if ("group".equals(metadataTemplate.getType())) {
-            List<Object> records = AlmaApiCommand.getSTATIC_VARIABLES_MAP().get(metadataTemplate.getValue());
+            List<Object> records = AlmaApiCommand.getVariableRawValues(metadataTemplate.getValue());
             if (records != null) {
-                for (Object rec : records) {
-                    MetadataGroupType mgt = prefs.getMetadataGroupTypeByName(metadataTemplate.getName());
-                    MetadataGroup grp = new MetadataGroup(mgt);
-
-                    for (Entry<String, String> entry : metadataTemplate.getGroupMetadataMap().entrySet()) {
-                        String path = entry.getValue();
-                        List<Object> values = JSONUtils.getValuesFromSourceGeneral(path, rec);
-                        for (Object val : values) {
-                            Metadata md = new Metadata(prefs.getMetadataTypeByName(entry.getKey()));
-
-                            md.setValue(JSONUtils.getValueAsString(val));
-                            grp.addMetadata(md);
-                        }
-                    }
-
-                    logical.addMetadataGroup(grp);
-                }
+                addMetadataGroups(metadataTemplate, logical, records);
             }
         } else {
+            MetadataType mdType = metadataTemplate.getMetadataType();
             List<String> metadataValues = AlmaApiCommand.getVariableValues(metadataTemplate.getValue(), false);
             if ("each".equals(metadataTemplate.getChoice())) {
                 for (String mdValue : metadataValues) {
-                    addMetadata(mdTypeName, logical, mdValue);
+                    addMetadata(mdType, logical, mdValue);
                 }
             } else {
                 // determine metadata value according to the configured choice
                 String mdValue = getEntryValue(metadataValues, metadataTemplate.getChoice());
-                updateMetadata(metadataTemplate, mdTypeName, logical, mdValue);
+                updateMetadata(metadataTemplate, mdType, mdTypeName, logical, mdValue);
             }
         }
 
     }
 
-    private void updateMetadata(EntryToSaveTemplate metadataTemplate, String mdTypeName, DocStruct logical, String mdValue)
+    /**
+     * add one metadata group for every record
+     * 
+     * @param metadataTemplate EntryToSaveTemplate of type "group"
+     * @param logical logical DocStruct
+     * @param records JSON objects whose values are saved in the groups
+     * @throws UGHException
+     */
+    private void addMetadataGroups(EntryToSaveTemplate metadataTemplate, DocStruct logical, List<Object> records) throws UGHException {
+        MetadataGroupType mgt = metadataTemplate.getMetadataGroupType();
+        Map<String, MetadataType> groupMetadataTypes = metadataTemplate.getGroupMetadataTypes();
+        List<MetadataType> mdTypes = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        for (Entry<String, String> entry : metadataTemplate.getGroupMetadataMap().entrySet()) {
+            mdTypes.add(groupMetadataTypes.get(entry.getKey()));
+            paths.add(entry.getValue());
+        }
+
+        // the paths may be evaluated in parallel, but UGH is not thread-safe, hence all groups are created here in the order of the records
+        for (List<List<String>> recordValues : JSONUtils.getValuesOfRecords(paths, records, PARALLEL_GROUP_RECORDS)) {
+            MetadataGroup grp = new MetadataGroup(mgt);
+
+            for (int i = 0; i < mdTypes.size(); ++i) {
+                for (String value : recordValues.get(i)) {
+                    Metadata md = new Metadata(mdTypes.get(i));
+
+                    md.setValue(value);
+                    grp.addMetadata(md);
+                }
+            }
+
+            logical.addMetadataGroup(grp);
+            metadataChanged = true;
+        }
+    }
+
+    private void updateMetadata(EntryToSaveTemplate metadataTemplate, MetadataType mdType, String mdTypeName, DocStruct logical, String mdValue)
             throws MetadataTypeNotAllowedException {
         Metadata oldMd = metadataTemplate.isOverwrite() ? findExistingMetadata(logical, mdTypeName) : null;
         if (oldMd != null) {
-            oldMd.setValue(mdValue);
+            if (!Objects.equals(oldMd.getValue(), mdValue)) {
+                oldMd.setValue(mdValue);
+                metadataChanged = true;
+            }
         } else {
-            Metadata newMd = createNewMetadata(mdTypeName, mdValue);
+            Metadata newMd = createNewMetadata(mdType, mdValue);
             logical.addMetadata(newMd);
+            addToMetadataIndex(newMd);
+            metadataChanged = true;
         }
     }
 
-    private void addMetadata(String mdTypeName, DocStruct logical, String mdValue) throws MetadataTypeNotAllowedException {
+    private void addMetadata(MetadataType type, DocStruct logical, String mdValue) throws MetadataTypeNotAllowedException {
 
-        MetadataType type = prefs.getMetadataTypeByName(mdTypeName);
         if (type.getIsPerson()) {
             Person p = new Person(type);
             if (mdValue.contains(",")) {
@@ -579,7 +1344,9 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
             Metadata md = new Metadata(type);
             md.setValue(mdValue);
             logical.addMetadata(md);
+            addToMetadataIndex(md);
         }
+        metadataChanged = true;
     }
 
     /**
@@ -590,28 +1357,41 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
      * @return the metadata object if found, null otherwise
      */
     private Metadata findExistingMetadata(DocStruct ds, String mdTypeName) {
-        if (ds.getAllMetadata() != null) {
-            for (Metadata md : ds.getAllMetadata()) {
-                if (md.getType().getName().equals(mdTypeName)) {
-                    return md;
+        if (existingMetadataIndex == null) {
+            // index the first metadata of every type once, instead of scanning all metadata for every lookup
+            existingMetadataIndex = new HashMap<>();
+            if (ds.getAllMetadata() != null) {
+                for (Metadata md : ds.getAllMetadata()) {
+                    existingMetadataIndex.putIfAbsent(md.getType().getName(), md);
                 }
             }
         }
-        return null;
+        return existingMetadataIndex.get(mdTypeName);
+    }
+
+    /**
+     * add a new metadata of the logical DocStruct to the index, if the index is already built
+     * 
+     * @param md Metadata that was added to the logical DocStruct
+     */
+    private void addToMetadataIndex(Metadata md) {
+        if (existingMetadataIndex != null) {
+            existingMetadataIndex.putIfAbsent(md.getType().getName(), md);
+        }
     }
 
     /**
      * prepare a new Metadata object based on the input type and value
      * 
-     * @param mdTypeName type of the new Metadata object
+     * @param mdType type of the new Metadata object
      * @param value value of the new Metadata object
      * @return a Metadata object of the given type and initialized with the given value
      * @throws MetadataTypeNotAllowedException
      */
-    private Metadata createNewMetadata(String mdTypeName, String value) throws MetadataTypeNotAllowedException {
-        log.debug("creating new Metadata of type: " + mdTypeName);
+    private Metadata createNewMetadata(MetadataType mdType, String value) throws MetadataTypeNotAllowedException {
+        log.debug("creating new Metadata of type: " + (mdType == null ? null : mdType.getName()));
 
-        Metadata md = new Metadata(prefs.getMetadataTypeByName(mdTypeName));
+        Metadata md = new Metadata(mdType);
         md.setValue(value);
         return md;
     }
@@ -703,14 +1483,210 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
      * @param headerContentType value for the header parameter Content-type
      * @param url request url
      * @param body JSON or XML body that is to be sent by request,
+     * @param fingerprint fingerprint of the request, used to send requests other than GET only once
      * @return response as JSONObject, or null if any error occurred
      * @throws IOException
      */
-    private Object runCommand(AlmaApiCommand command, String url, String body) throws IOException {
+    private Object runCommand(AlmaApiCommand command, String url, String body, String fingerprint) throws IOException {
         String method = command.getMethod();
+        if (requestPlan != null) {
+            ResponseBody responseBody = planRequest(command, url, "get".equalsIgnoreCase(method) ? null : body);
+            return responseBody == null ? null : parseResponse(command.getHeaderAccept(), responseBody);
+        }
 
-        return "get".equalsIgnoreCase(method) ? runCommandGet(command, url)
-                : runCommandNonGet(method, command, url, body);
+        if ("get".equalsIgnoreCase(method)) {
+            // GET requests are guarded where they are sent, so that cache hits and waiting for an identical request are not counted as calls
+            return runCommandGet(command, url);
+        }
+        return guard(command, () -> runCommandNonGet(method, command, url, body, fingerprint));
+    }
+
+    /**
+     * add a request to the plan of a dry run instead of sending it, and replay its archived response if there is one
+     * 
+     * @param command AlmaApiCommand
+     * @param url request url
+     * @param body request body, null for GET requests
+     * @return the archived response, or null if no response is replayed
+     * @throws IOException
+     */
+    private ResponseBody planRequest(AlmaApiCommand command, String url, String body) throws IOException {
+        Map<String, String> headers = new HashMap<>(command.getHeaderParameters());
+        headers.put("Accept", command.getHeaderAccept());
+        headers.put("Content-type", command.getHeaderContentType());
+        requestPlan.addRequest(RequestPlan.estimateBytes(command.getMethod().toUpperCase(), url, headers, body));
+
+        if (archivedResponses == null || !command.isSaveResponse()) {
+            return null;
+        }
+        Path path = Paths.get(replaceGoobiVariables(command.getResponseFileName()));
+        ResponseBody responseBody = archivedResponses.next(path, command.getResponseArchiveMode(), command.getResponseCompression());
+        if (responseBody == null) {
+            log.debug("No archived response left in " + path);
+            return null;
+        }
+        requestPlan.addReplayedResponse(responseBody.getLength());
+        return responseBody;
+    }
+
+    /**
+     * run a request of a command, unless the deadline expired or the circuit breaker is open, and record its outcome in the circuit breaker
+     * 
+     * @param command AlmaApiCommand
+     * @param call request to run
+     * @return result of the request
+     * @throws IOException
+     */
+    private <T> T guard(AlmaApiCommand command, RequestCall<T> call) throws IOException {
+        // a command whose deadline expired does not send any further requests
+        getRemainingTime();
+
+        CircuitBreaker breaker = breakerSettings == null ? null : CircuitBreaker.get(backendHost, command.getRawEndpoint(), breakerSettings);
+        if (breaker != null && !breaker.tryAcquire()) {
+            throw new IOException("Circuit breaker " + breaker.getName() + " is open, the request is not sent.");
+        }
+
+        long start = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            T result = call.call();
+            failed = false;
+            return result;
+        } catch (HttpStatusException e) {
+            // a rejected request, e.g. for an unknown record, does not mean that the backend has a problem
+            failed = e.isServerError();
+            throw e;
+        } finally {
+            if (breaker != null) {
+                breaker.onResult(System.currentTimeMillis() - start, failed);
+            }
+        }
+    }
+
+    /**
+     * execute a request via the transport with the timeouts of the command, and abort it if the deadline of the command or of the step expires
+     * 
+     * @param request HttpRequestBase
+     * @param command AlmaApiCommand
+     * @return body of the response
+     * @throws IOException
+     */
+    private ResponseBody execute(HttpRequestBase request, AlmaApiCommand command) throws IOException {
+        request.setConfig(RequestConfig.custom()
+                .setConnectTimeout(command.getConnectTimeout() >= 0 ? command.getConnectTimeout() : connectTimeout)
+                .setSocketTimeout(command.getSocketTimeout() >= 0 ? command.getSocketTimeout() : socketTimeout)
+                .setConnectionRequestTimeout(
+                        command.getConnectionRequestTimeout() >= 0 ? command.getConnectionRequestTimeout() : connectionRequestTimeout)
+                .build());
+
+        if (!request.containsHeader("Accept-Encoding")) {
+            request.setHeader("Accept-Encoding", ResponseBody.ACCEPTED_ENCODINGS);
+        }
+
+        long remainingTime = getRemainingTime();
+        ScheduledFuture<?> abort = remainingTime == Long.MAX_VALUE ? null
+                : DEADLINE_TIMER.schedule(request::abort, remainingTime, TimeUnit.MILLISECONDS);
+        try {
+            ResponseBody responseBody = transport.execute(request);
+            responseBytes.addAndGet(responseBody.getLength());
+            responseWireBytes.addAndGet(responseBody.getWireLength());
+            return responseBody;
+        } catch (IOException e) {
+            if (request.isAborted()) {
+                throw new IOException("Deadline exceeded, the request to " + command.getRawEndpoint() + " was aborted.", e);
+            }
+            throw e;
+        } finally {
+            if (abort != null) {
+                abort.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * create the entity of a request, which is compressed with gzip if the command allows it and the body is large enough
+     * 
+     * @param command AlmaApiCommand
+     * @param body JSON or XML body that is to be sent by request
+     * @param headerContentType value for the header parameter Content-type
+     * @return HttpEntity
+     * @throws IOException
+     */
+    private HttpEntity createRequestEntity(AlmaApiCommand command, String body, String headerContentType) throws IOException {
+        ContentType contentType = ContentType.create(headerContentType, Consts.UTF_8);
+        byte[] data = body.getBytes(Consts.UTF_8);
+        requestBytes.addAndGet(data.length);
+        if (!command.isCompressRequest() || data.length < requestCompressionThreshold) {
+            requestWireBytes.addAndGet(data.length);
+            return new ByteArrayEntity(data, contentType);
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(data);
+        }
+        requestWireBytes.addAndGet(compressed.size());
+        ByteArrayEntity entity = new ByteArrayEntity(compressed.toByteArray(), contentType);
+        entity.setContentEncoding("gzip");
+        return entity;
+    }
+
+    /**
+     * get the time that is left until the deadline of the current command or of the step expires
+     * 
+     * @return remaining time in milliseconds, or Long.MAX_VALUE if there is no deadline
+     * @throws IOException if the deadline already expired
+     */
+    private long getRemainingTime() throws IOException {
+        long deadlineAt = Math.min(commandDeadlineAt, stepDeadlineAt);
+        if (deadlineAt == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        long remainingTime = deadlineAt - System.currentTimeMillis();
+        if (remainingTime <= 0) {
+            throw new IOException(deadlineAt == stepDeadlineAt ? "Deadline of the step exceeded." : "Deadline of the command exceeded.");
+        }
+        return remainingTime;
+    }
+
+    private static long getDeadlineAt(long duration) {
+        return duration > 0 ? System.currentTimeMillis() + duration : Long.MAX_VALUE;
+    }
+
+    private static ScheduledThreadPoolExecutor createDeadlineTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "alma-api-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // most requests finish in time, so their cancelled abort tasks should not pile up in the queue
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * Request that may fail with an IOException.
+     */
+    private interface RequestCall<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * get the host of a url
+     * 
+     * @param url url of the backend
+     * @return host of the url, or the url itself if it has no host
+     */
+    private static String getHost(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            if (host != null) {
+                return host;
+            }
+        } catch (IllegalArgumentException e) {
+            log.debug("Cannot parse url " + url);
+        }
+        return url;
     }
 
     /**
@@ -724,40 +1700,170 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
      */
     private Object runCommandGet(AlmaApiCommand command, String url) throws IOException {
         String headerAccept = command.getHeaderAccept(); // default application/json, unless configured
-        String headerContentType = command.getHeaderContentType(); // default application/json, unless in <body> configured
-
-        Map<String, String> headerParameters = command.getHeaderParameters();
 
         if (testmode) {
-            String response = HttpUtils.getStringFromUrl(url);
+            ResponseBody responseBody = guard(command, () -> fetchGetResponse(command, url, null));
             try {
-                return JSONUtils.getJSONObjectFromString(response);
+                return JSONUtils.getJSONObjectFromResponse(responseBody);
             } catch (InvalidJsonException e) {
                 log.error(e);
+                return null;
             }
-        } else {
-            HttpGet httpGet = new HttpGet(url);
-            try (CloseableHttpClient client = HttpClients.createDefault()) {
-                httpGet.setHeader("Accept", headerAccept);
-                httpGet.setHeader("Content-type", headerContentType);
+        }
 
-                for (Entry<String, String> entry : headerParameters.entrySet()) {
-                    httpGet.setHeader(entry.getKey(), entry.getValue());
-                }
+        SharedResponse response = fetchSharedGetResponse(command, url, null);
+        if (command.isSaveResponse()) {
+            storeResponse(command, response.getBody());
+        }
 
-                String message = "Executing request " + httpGet.getRequestLine();
-                log.debug(message);
+        Object document = response.getDocument(headerAccept);
+        if (isCoalescing() && document != null && !(document instanceof ResponseBody)
+                && !command.getUpdateVariablePathValueMap().isEmpty()) {
+            // the shared document must not be modified by the update entries, hence this command parses its own copy
+            document = parseResponse(headerAccept, response.getBody());
+        }
+        return document;
+    }
 
-                String responseBody = client.execute(httpGet, RESPONSE_HANDLER);
-                if (command.isSaveResponse()) {
-                    storeResponse(command, responseBody);
-                }
+"    /**
+     * @return true if identical GET requests are coalesced, which is never done while recording, since the responses of other executions would
+     *         be missing from the recording
+     */
+    private boolean isCoalescing() {
+        return coalesceGetRequests && !recording;
+    }
 
-                return headerAccept.endsWith("json") ? JSONUtils.getJSONObjectFromString(responseBody) : null;
+    /**
+     * send a GET request, or wait for the response of an identical request that is already running, if coalesce-get-requests is enabled
+     * 
+     * @param command AlmaApiCommand
+     * @param url request url
+     * @param requests collects the requests that are sent, may be null
+     * @return the response, which may be shared with other executions
+     * @throws IOException
+     */
+    private SharedResponse fetchSharedGetResponse(AlmaApiCommand command, String url, PageRequests requests) throws IOException {
+        // requests are only identical if they also have the same headers, the key is never logged since the url contains the API key
+        String key = url + "\n" + command.getHeaderAccept() + "\n" + command.getHeaderContentType() + "\n"
+                + new TreeMap<>(command.getHeaderParameters());
+        // a cached response would be missing from the recording
+        boolean cached = responseCache != null && command.isCache() && !recording;
+        String cacheKey = cached ? Fingerprint.of(key) : null;
+        if (cached) {
+            ResponseBody response = getCachedResponse(cacheKey);
+            if (response != null) {
+                cacheHits.incrementAndGet();
+                return new SharedResponse(response);
+            }
+            cacheMisses.incrementAndGet();
+        }
 
+        RequestCall<SharedResponse> call = () -> {
+            SharedResponse response = new SharedResponse(guard(command, () -> fetchGetResponse(command, url, requests)));
+            if (cached) {
+                cacheResponse(cacheKey, response.getBody());
             }
+            return response;
+        };
+        return isCoalescing() ? GET_REQUESTS.execute(key, getRemainingTime(), call::call) : call.call();
+    }
+
+    /**
+     * get a response from the response cache, a failing cache is treated as a cache miss
+     * 
+     * @param cacheKey fingerprint of the request
+     * @return the cached response, or null if there is none
+     */
+    private ResponseBody getCachedResponse(String cacheKey) {
+        try {
+            return responseCache.get(cacheKey);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to read from the response cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * add a response to the response cache, a failing cache does not fail the request
+     * 
+     * @param cacheKey fingerprint of the request
+     * @param response the response
+     */
+    private void cacheResponse(String cacheKey, ResponseBody response) {
+        try {
+            responseCache.put(cacheKey, response, responseCacheTtl);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to write to the response cache: " + e.getMessage());
         }
-        return null; //NOSONAR
+    }
+
+    /**
+     * send a GET request, hedged if the command is configured so, and read its response without processing it
+     * 
+     * @param command AlmaApiCommand
+     * @param url request url
+     * @param requests collects the requests that are sent, may be null
+     * @return body of the response
+     * @throws IOException
+     */
+    private ResponseBody fetchGetResponse(AlmaApiCommand command, String url, PageRequests requests) throws IOException {
+        if (!command.isHedge()) {
+            return sendGetRequest(command, createGetRequest(command, url, requests));
+        }
+
+        // every attempt is a request of its own, which the default transport sends over a connection of its own
+        HedgingPolicy policy = HedgingPolicy.get(backendHost, command.getRawEndpoint(), hedgingSettings);
+        return policy.execute(() -> {
+            HttpGet httpGet = createGetRequest(command, url, requests);
+            return new HedgingPolicy.Attempt<ResponseBody>() {
+                @Override
+                public ResponseBody call() throws IOException {
+                    return sendGetRequest(command, httpGet);
+                }
+
+                @Override
+                public void abort() {
+                    httpGet.abort();
+                }
+            };
+        });
+    }
+
+    /**
+     * create a GET request with all headers of the command
+     * 
+     * @param command AlmaApiCommand
+     * @param url request url
+     * @param requests collects the new request, may be null
+     * @return HttpGet
+     */
+    private HttpGet createGetRequest(AlmaApiCommand command, String url, PageRequests requests) {
+        HttpGet httpGet = new HttpGet(url);
+        if (requests != null) {
+            requests.add(httpGet);
+        }
+        httpGet.setHeader("Accept", command.getHeaderAccept());
+        httpGet.setHeader("Content-type", command.getHeaderContentType());
+
+        for (Entry<String, String> entry : command.getHeaderParameters().entrySet()) {
+            httpGet.setHeader(entry.getKey(), entry.getValue());
+        }
+        return httpGet;
+    }
+
+    /**
+     * send a GET request
+     * 
+     * @param command AlmaApiCommand
+     * @param httpGet HttpGet
+     * @return body of the response
+     * @throws IOException
+     */
+    private ResponseBody sendGetRequest(AlmaApiCommand command, HttpGet httpGet) throws IOException {
+        String message = "Executing request " + httpGet.getRequestLine();
+        log.debug(message);
+
+        return execute(httpGet, command);
     }
 
     /**
@@ -768,10 +1874,11 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
      * @param headerContentType value for the header parameter Content-type
      * @param url request url
      * @param body JSON or XML body that is to be sent by request
+     * @param fingerprint fingerprint of the request
      * @return response as JSONObject, or null if any error occurred
      * @throws IOException
      */
-    private Object runCommandNonGet(String method, AlmaApiCommand command, String url, String body) throws IOException {
+    private Object runCommandNonGet(String method, AlmaApiCommand command, String url, String body, String fingerprint) throws IOException {
 
         String headerAccept = command.getHeaderAccept(); // default application/json, unless configured
         String headerContentType = command.getHeaderContentType(); // default application/json, unless in <body> configured
@@ -793,35 +1900,66 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
                 return null; //NOSONAR
         }
 
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            httpBase.setHeader("Accept", headerAccept);
+        ResponseBody completedResponse = idempotencyStore == null ? null : idempotencyStore.get(fingerprint);
+        if (completedResponse != null) {
+            // the request was already sent by a previous run, use its response instead of sending it again
+            log.info("Skipping " + method.toUpperCase() + " request to " + command.getRawEndpoint() + " (" + fingerprint
+                    + "), which was already completed by a previous run.");
+            return parseResponse(headerAccept, completedResponse);
+        }
 
-            for (Entry<String, String> entry : headerParameters.entrySet()) {
-                httpBase.setHeader(entry.getKey(), entry.getValue());
-            }
+        httpBase.setHeader("Accept", headerAccept);
 
-            StringEntity entity = new StringEntity(body, ContentType.create(headerContentType, Consts.UTF_8));
-            httpBase.setEntity(entity);
+        for (Entry<String, String> entry : headerParameters.entrySet()) {
+            httpBase.setHeader(entry.getKey(), entry.getValue());
+        }
+        if (StringUtils.isNotBlank(idempotencyHeader)) {
+            httpBase.setHeader(idempotencyHeader, fingerprint);
+        }
 
-            String message = "Executing request " + httpBase.getRequestLine();
-            log.debug(message);
+        httpBase.setEntity(createRequestEntity(command, body, headerContentType));
 
-            String responseBody = client.execute(httpBase, RESPONSE_HANDLER);
-            if (command.isSaveResponse()) {
-                storeResponse(command, responseBody);
-            }
-            return headerAccept.endsWith("json") ? JSONUtils.getJSONObjectFromString(responseBody) : null;
+        String message = "Executing request " + httpBase.getRequestLine();
+        log.debug(message);
+
+        ResponseBody responseBody = execute(httpBase, command);
+        if (idempotencyStore != null) {
+            idempotencyStore.put(fingerprint, responseBody);
         }
+        if (command.isSaveResponse()) {
+            storeResponse(command, responseBody);
+        }
+        return parseResponse(headerAccept, responseBody);
     }
 
-    private void storeResponse(AlmaApiCommand command, String responseBody) throws IOException {
-        Path path = Paths.get(replacer.replace(command.getResponseFileName()));
-        if (!StorageProvider.getInstance().isFileExists(path.getParent())) {
-            StorageProvider.getInstance().createDirectories(path.getParent());
+    /**
+     * parse a response according to the header Accept of its command
+     * 
+     * @param headerAccept value for the header parameter Accept
+     * @param responseBody response
+     * @return parsed JSON object for JSON, the response itself for XML, which is evaluated while processing the targets, null otherwise
+     */
+    private static Object parseResponse(String headerAccept, ResponseBody responseBody) {
+        if (headerAccept.endsWith("json")) {
+            return JSONUtils.getJSONObjectFromResponse(responseBody);
         }
+        return headerAccept.endsWith("xml") ? responseBody : null;
+    }
 
-        byte[] strToBytes = responseBody.getBytes();
-        Files.write(path, strToBytes);
+    /**
+     * archive the response of a command in the file configured via @filename, the file itself is written in the background
+     * 
+     * @param command AlmaApiCommand
+     * @param responseBody response
+     */
+    private void storeResponse(AlmaApiCommand command, ResponseBody responseBody) {
+        if (dryRun) {
+            // the archived responses may be replayed by the dry run, hence they must not be overwritten
+            return;
+        }
+        Path path = Paths.get(replaceGoobiVariables(command.getResponseFileName()));
+        // the archive uses the same buffer that is parsed, hence it must not be modified afterwards
+        responseArchive.store(path, command.getResponseArchiveMode(), command.getResponseCompression(), responseBody);
     }
 
     /**
@@ -851,4 +1989,53 @@ public class AlmaApiStepPlugin implements IStepPluginVersion2 {
             Helper.addMessageToProcessJournal(processId, logType, logMessage);
         }
     }
+    /**
+     * response of a GET request that may be shared by several executions, its body is parsed only once for all of them
+     */
+    private static class SharedResponse {
+
+        @Getter
+        private final ResponseBody body;
+        private Object document;
+        private boolean parsed;
+
+        SharedResponse(ResponseBody body) {
+            this.body = body;
+        }
+
+        synchronized Object getDocument(String headerAccept) {
+            if (!parsed) {
+                document = parseResponse(headerAccept, body);
+                parsed = true;
+            }
+            return document;
+        }
+    }
+
+    /**
+     * requests sent for a single page, which are aborted if the page is not needed anymore, since cancelling its task does not interrupt a
+     * blocking request
+     */
+    private static class PageRequests {
+
+        private final List<HttpRequestBase> requests = new ArrayList<>();
+        private boolean aborted;
+
+        synchronized void add(HttpRequestBase request) {
+            if (aborted) {
+                request.abort();
+            } else {
+                requests.add(request);
+            }
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            for (HttpRequestBase request : requests) {
+                request.abort();
+            }
+            requests.clear();
+        }
+    }
+
 }
@@ -0,0 +1,128 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the responses archived by a ResponseArchive again, in the same order as they were stored, so that a dry run can process them instead of
+ * sending requests. Archived files do not record their charset, hence all responses are read as UTF-8.
+ *
+ * Responses of the mode append are read as the records written by ResponseArchive, each one preceded by its length, hence they may contain line
+ * breaks themselves.
+ */
+public class ArchivedResponses {
+
+    // number of responses already replayed per configured path, used to find the file names per endpoint
+    private Map<Path, Integer> endpointCounters = new HashMap<>();
+    // remaining responses of archives of the mode append
+    private Map<Path, Deque<byte[]>> appendedResponses = new HashMap<>();
+
+    /**
+     * get the next archived response of a configured path
+     *
+     * @param configuredPath path configured via @filename with all variables replaced
+     * @param mode overwrite | endpoint | append
+     * @param compression none | gzip
+     * @return the next response, or null if there is no further response archived
+     * @throws IOException
+     */
+    public synchronized ResponseBody next(Path configuredPath, String mode, String compression) throws IOException {
+        boolean gzip = ResponseArchive.COMPRESSION_GZIP.equals(compression);
+        switch (mode) {
+            case ResponseArchive.MODE_ENDPOINT:
+                int index = endpointCounters.merge(configuredPath, 1, Integer::sum);
+                byte[] content = read(getArchivedPath(ResponseArchive.getEndpointPath(configuredPath, index), gzip), gzip);
+                return content == null ? null : ResponseBody.of(content, StandardCharsets.UTF_8);
+            case ResponseArchive.MODE_APPEND:
+                Deque<byte[]> responses = appendedResponses.get(configuredPath);
+                if (responses == null) {
+                    Path path = getArchivedPath(configuredPath, gzip);
+                    responses = split(path, read(path, gzip));
+                    appendedResponses.put(configuredPath, responses);
+                }
+                return responses.isEmpty() ? null : ResponseBody.of(responses.poll(), StandardCharsets.UTF_8);
+            default:
+                // an overwritten archive only holds the last response, which is used for every request
+                content = read(getArchivedPath(configuredPath, gzip), gzip);
+                return content == null ? null : ResponseBody.of(content, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Path getArchivedPath(Path path, boolean gzip) {
+        if (gzip && !path.getFileName().toString().endsWith(".gz")) {
+            return path.resolveSibling(path.getFileName() + ".gz");
+        }
+        return path;
+    }
+
+    private static byte[] read(Path path, boolean gzip) throws IOException {
+        if (!Files.exists(path)) {
+            return null; // NOSONAR as marker for a missing response
+        }
+        if (!gzip) {
+            return Files.readAllBytes(path);
+        }
+        // concatenated gzip members, as written by appending responses, are read as one stream
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+            return in.readAllBytes();
+        }
+    }
+
+    static Deque<byte[]> split(Path path, byte[] content) throws IOException {
+        Deque<byte[]> responses = new ArrayDeque<>();
+        if (content == null) {
+            return responses;
+        }
+        int position = 0;
+        while (position < content.length) {
+            // every record starts with a line holding the length of its response
+            long length = 0;
+            int digits = 0;
+            while (position < content.length && content[position] >= '0' && content[position] <= '9' && length <= Integer.MAX_VALUE) {
+                length = length * 10 + content[position++] - '0';
+                digits++;
+            }
+            if (digits == 0 || position >= content.length || content[position] != ResponseArchive.RECORD_SEPARATOR) {
+                throw new IOException("Invalid record header at byte " + position + " of archive " + path);
+            }
+            int start = position + 1;
+            long end = start + length;
+            if (end >= content.length || content[(int) end] != ResponseArchive.RECORD_SEPARATOR) {
+                throw new IOException("Incomplete record at byte " + start + " of archive " + path);
+            }
+            responses.add(Arrays.copyOfRange(content, start, (int) end));
+            position = (int) end + 1;
+        }
+        return responses;
+    }
+
+}
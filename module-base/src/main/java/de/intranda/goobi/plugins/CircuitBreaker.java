@@ -0,0 +1,245 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Circuit breaker for the requests to one endpoint template of one backend host. If too many of the recent requests failed or were too slow, the
+ * breaker opens and all further requests fail immediately, instead of waiting for the timeouts of a backend that is down. After a while, a few
+ * probe requests are let through, and the breaker closes again if they are successful.
+ *
+ * All breakers are shared by all executions of the step within the JVM.
+ */
+@Log4j2
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private static final byte OUTCOME_FAILED = 1;
+    private static final byte OUTCOME_SLOW = 2;
+
+    @Getter
+    private final String name;
+    private final Settings settings;
+    private final LongSupplier clock;
+
+    @Getter
+    private State state = State.CLOSED;
+    // outcomes of the most recent calls in the closed state, used as a ring buffer
+    private final byte[] window;
+    private int windowPosition = 0;
+    private int windowCount = 0;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+
+    // counters since the start of the JVM
+    @Getter
+    private long successfulCalls;
+    @Getter
+    private long failedCalls;
+    @Getter
+    private long slowCalls;
+    @Getter
+    private long rejectedCalls;
+    @Getter
+    private long openedCount;
+
+    CircuitBreaker(String name, Settings settings, LongSupplier clock) {
+        this.name = name;
+        this.settings = settings;
+        this.clock = clock;
+        this.window = new byte[settings.getWindowSize()];
+    }
+
+    /**
+     * get the breaker for a backend host and an endpoint template, it is created if it does not exist yet
+     *
+     * @param host backend host
+     * @param endpointTemplate endpoint as configured, i.e. before any variable was replaced
+     * @param settings settings used if the breaker is created
+     * @return CircuitBreaker
+     */
+    public static CircuitBreaker get(String host, String endpointTemplate, Settings settings) {
+        return BREAKERS.computeIfAbsent(host + " " + endpointTemplate, k -> new CircuitBreaker(k, settings, System::currentTimeMillis));
+    }
+
+    /**
+     * @return all breakers created so far
+     */
+    public static Collection<CircuitBreaker> getAll() {
+        return new ArrayList<>(BREAKERS.values());
+    }
+
+    /**
+     * check whether a request may be sent
+     *
+     * @return true if the request may be sent, false if it should fail immediately
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= settings.getOpenDuration()) {
+            transitionTo(State.HALF_OPEN);
+        }
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (probesStarted < settings.getProbeCalls()) {
+                    ++probesStarted;
+                    return true;
+                }
+                break;
+            default:
+                break;
+        }
+        ++rejectedCalls;
+        return false;
+    }
+
+    /**
+     * record the outcome of a request that was permitted by tryAcquire
+     *
+     * @param durationMillis duration of the request
+     * @param failed true if the request failed
+     */
+    public synchronized void onResult(long durationMillis, boolean failed) {
+        boolean slow = durationMillis >= settings.getSlowCallDuration();
+        if (failed) {
+            ++failedCalls;
+        } else {
+            ++successfulCalls;
+        }
+        if (slow) {
+            ++slowCalls;
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (failed || slow) {
+                transitionTo(State.OPEN);
+            } else if (++probesSucceeded >= settings.getProbeCalls()) {
+                transitionTo(State.CLOSED);
+            }
+        } else if (state == State.CLOSED) {
+            byte outcome = 0;
+            if (failed) {
+                outcome |= OUTCOME_FAILED;
+            }
+            if (slow) {
+                outcome |= OUTCOME_SLOW;
+            }
+            window[windowPosition] = outcome;
+            windowPosition = (windowPosition + 1) % window.length;
+            windowCount = Math.min(windowCount + 1, window.length);
+            if (windowCount >= settings.getMinimumCalls() && isThresholdExceeded()) {
+                transitionTo(State.OPEN);
+            }
+        }
+        // results of requests that were sent before the breaker opened are only counted
+    }
+
+    private boolean isThresholdExceeded() {
+        int failed = 0;
+        int slow = 0;
+        for (int i = 0; i < windowCount; ++i) {
+            if ((window[i] & OUTCOME_FAILED) != 0) {
+                ++failed;
+            }
+            if ((window[i] & OUTCOME_SLOW) != 0) {
+                ++slow;
+            }
+        }
+        return failed * 100 >= settings.getFailureRateThreshold() * windowCount
+                || slow * 100 >= settings.getSlowCallRateThreshold() * windowCount;
+    }
+
+    private void transitionTo(State newState) {
+        log.info("Circuit breaker " + name + " changes from " + state + " to " + newState + ". " + getMetrics());
+        state = newState;
+        switch (newState) {
+            case OPEN:
+                openedAt = clock.getAsLong();
+                ++openedCount;
+                break;
+            case HALF_OPEN:
+                probesStarted = 0;
+                probesSucceeded = 0;
+                break;
+            default:
+                windowPosition = 0;
+                windowCount = 0;
+                break;
+        }
+    }
+
+    /**
+     * @return summary of the state and all counters, used for logging
+     */
+    public synchronized String getMetrics() {
+        return "state=" + state + ", successful=" + successfulCalls + ", failed=" + failedCalls + ", slow=" + slowCalls + ", rejected="
+                + rejectedCalls + ", opened=" + openedCount;
+    }
+
+    /**
+     * Thresholds of a circuit breaker.
+     */
+    @Getter
+    public static class Settings {
+        // percentage of failed calls in the window that opens the breaker
+        private final int failureRateThreshold;
+        // percentage of slow calls in the window that opens the breaker
+        private final int slowCallRateThreshold;
+        // duration in milliseconds from which a call counts as slow
+        private final long slowCallDuration;
+        // number of recent calls that are evaluated
+        private final int windowSize;
+        // number of calls that are needed before the breaker can open
+        private final int minimumCalls;
+        // duration in milliseconds for which the breaker stays open before probing
+        private final long openDuration;
+        // number of successful probe calls that close the breaker again
+        private final int probeCalls;
+
+        public Settings(int failureRateThreshold, int slowCallRateThreshold, long slowCallDuration, int windowSize, int minimumCalls,
+                long openDuration, int probeCalls) {
+            this.failureRateThreshold = failureRateThreshold;
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            this.slowCallDuration = slowCallDuration;
+            this.windowSize = Math.max(windowSize, 1);
+            this.minimumCalls = Math.max(Math.min(minimumCalls, this.windowSize), 1);
+            this.openDuration = openDuration;
+            this.probeCalls = Math.max(probeCalls, 1);
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.jayway.jsonpath.InvalidJsonException;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import net.minidev.json.JSONValue;
+
+/**
+ * Append-only journal of the commands and endpoints completed during a run, together with the variables they created. If a run fails, the next
+ * run replays the journal and continues with the first incomplete endpoint instead of sending all requests again.
+ *
+ * Every line of the journal is a JSON object. The first line holds the fingerprint of the configured commands, so that a journal is discarded if
+ * the configuration was changed in between.
+ */
+@Log4j2
+public class CommandJournal {
+
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_COMMAND = "command";
+    private static final String KEY_ENDPOINT = "endpoint";
+    private static final String KEY_COMPLETED = "completed";
+    private static final String KEY_VARIABLES = "variables";
+
+    private Path path;
+    private FileChannel channel;
+    // length of the complete entries of a replayed journal, an incomplete last entry is cut off before appending to it
+    private long replayedLength;
+
+    private Set<Integer> completedCommands = new HashSet<>();
+    private Map<Integer, Set<String>> completedEndpoints = new HashMap<>();
+    // variables created by all completed endpoints, in the order they were created
+    @Getter
+    private Map<String, List<Object>> restoredVariables = new LinkedHashMap<>();
+
+    private CommandJournal(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * open the journal, and replay it if it was written by a previous run with the same configuration
+     *
+     * @param path path of the journal file
+     * @param fingerprint fingerprint of the configured commands
+     * @return CommandJournal
+     * @throws IOException
+     */
+    public static CommandJournal open(Path path, String fingerprint) throws IOException {
+        CommandJournal journal = new CommandJournal(path);
+        boolean resumed = Files.exists(path) && journal.replay(fingerprint);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        if (resumed) {
+            journal.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            journal.channel.truncate(journal.replayedLength);
+            journal.channel.position(journal.replayedLength);
+            log.info("Resuming from journal " + path + " with " + journal.completedCommands.size() + " completed commands");
+        } else {
+            journal.completedCommands.clear();
+            journal.completedEndpoints.clear();
+            journal.restoredVariables.clear();
+            journal.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            Map<String, Object> header = new LinkedHashMap<>();
+            header.put(KEY_FINGERPRINT, fingerprint);
+            journal.append(header);
+        }
+        return journal;
+    }
+
+    public boolean isCommandCompleted(int commandIndex) {
+        return completedCommands.contains(commandIndex);
+    }
+
+    public boolean isEndpointCompleted(int commandIndex, String endpoint) {
+        Set<String> endpoints = completedEndpoints.get(commandIndex);
+        return endpoints != null && endpoints.contains(endpoint);
+    }
+
+    /**
+     * record that the request to an endpoint was completed
+     *
+     * @param commandIndex index of the command
+     * @param endpoint endpoint that was requested
+     * @param variables variables created or updated by processing the response
+     * @throws IOException
+     */
+    public void endpointCompleted(int commandIndex, String endpoint, Map<String, List<Object>> variables) throws IOException {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put(KEY_COMMAND, commandIndex);
+        entry.put(KEY_ENDPOINT, endpoint);
+        entry.put(KEY_VARIABLES, variables);
+        append(entry);
+        completedEndpoints.computeIfAbsent(commandIndex, k -> new HashSet<>()).add(endpoint);
+    }
+
+    /**
+     * record that all endpoints of a command were completed
+     *
+     * @param commandIndex index of the command
+     * @throws IOException
+     */
+    public void commandCompleted(int commandIndex) throws IOException {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put(KEY_COMMAND, commandIndex);
+        entry.put(KEY_COMPLETED, true);
+        append(entry);
+        completedCommands.add(commandIndex);
+    }
+
+    /**
+     * close the journal, and delete it if the run was successful, since there is nothing to resume then
+     *
+     * @param delete true if the journal file should be deleted
+     */
+    public void close(boolean delete) {
+        try {
+            channel.close();
+            if (delete) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            log.error("Failed to close journal " + path, e);
+        }
+    }
+
+    private void append(Map<String, Object> entry) throws IOException {
+        byte[] line = (JSONValue.toJSONString(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(line);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        // the journal is only useful if it survives a crash of the step
+        channel.force(false);
+    }
+
+    /**
+     * read all entries of an existing journal
+     *
+     * @param fingerprint fingerprint of the configured commands
+     * @return true if the journal belongs to the current configuration, false otherwise
+     */
+    @SuppressWarnings("unchecked")
+    private boolean replay(String fingerprint) throws IOException {
+        List<Map<String, Object>> entries = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long length = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                length++;
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                String value = line.toString(StandardCharsets.UTF_8);
+                line.reset();
+                try {
+                    entries.add((Map<String, Object>) JSONUtils.getJSONObjectFromString(value));
+                } catch (InvalidJsonException | ClassCastException e) {
+                    log.debug("Ignoring incomplete journal entry: " + value);
+                    break;
+                }
+                replayedLength = length;
+            }
+            // the last line may be incomplete if the previous run was killed while writing it, then it is missing its line break
+            if (line.size() > 0) {
+                log.debug("Ignoring incomplete journal entry: " + line.toString(StandardCharsets.UTF_8));
+            }
+        }
+
+        if (entries.isEmpty() || !fingerprint.equals(entries.get(0).get(KEY_FINGERPRINT))) {
+            log.debug("Journal " + path + " belongs to another configuration and is discarded");
+            return false;
+        }
+
+        for (Map<String, Object> entry : entries.subList(1, entries.size())) {
+            int commandIndex = ((Number) entry.get(KEY_COMMAND)).intValue();
+            if (Boolean.TRUE.equals(entry.get(KEY_COMPLETED))) {
+                completedCommands.add(commandIndex);
+            } else {
+                completedEndpoints.computeIfAbsent(commandIndex, k -> new HashSet<>()).add((String) entry.get(KEY_ENDPOINT));
+                Map<String, List<Object>> variables = (Map<String, List<Object>>) entry.get(KEY_VARIABLES);
+                if (variables != null) {
+                    restoredVariables.putAll(variables);
+                }
+            }
+        }
+        return true;
+    }
+
+}
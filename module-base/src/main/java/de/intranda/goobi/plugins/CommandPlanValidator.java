@@ -0,0 +1,304 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.Getter;
+
+/**
+ * Static analysis of the configured variables, commands and save entries. Every variable used by a command must be defined by a &lt;variable&gt; or
+ * created by the &lt;target&gt; or &lt;update&gt; of a previous command, since commands are run one by one in the configured order. A &lt;variable&gt;
+ * with a condition may be undefined, hence using it only causes a warning. Errors found here are reported before any request is sent, warnings
+ * only point to configuration that is probably not intended.
+ */
+public class CommandPlanValidator {
+    private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("\\{([^\\{\\}]*)\\}");
+    private static final Pattern VARIABLE_PATTERN = Pattern.compile("(\\{\\$[^\\{\\}]*\\})");
+
+    @Getter
+    private List<String> errors = new ArrayList<>();
+    @Getter
+    private List<String> warnings = new ArrayList<>();
+
+    private CommandPlanValidator() {
+        // use validate instead
+    }
+
+    /**
+     * check the configuration of a step
+     *
+     * @param variableConfigs configurations of all variables
+     * @param commandConfigs configurations of all commands, in the order they will be run
+     * @param saveConfigs configurations of all save entries
+     * @return CommandPlanValidator holding all errors and warnings found
+     */
+    public static CommandPlanValidator validate(List<HierarchicalConfiguration> variableConfigs, List<HierarchicalConfiguration> commandConfigs,
+            List<HierarchicalConfiguration> saveConfigs) {
+        CommandPlanValidator validator = new CommandPlanValidator();
+
+        Set<String> defined = new HashSet<>();
+        // variables that are only defined if the condition of their <variable> matches
+        Set<String> conditional = new HashSet<>();
+        for (HierarchicalConfiguration variableConfig : variableConfigs) {
+            String name = variableConfig.getString("@name");
+            if (StringUtils.isBlank(name)) {
+                validator.errors.add("A <variable> has no name.");
+            } else if (StringUtils.isNotBlank(variableConfig.getString("@conditionField"))) {
+                conditional.add(AlmaApiCommand.wrapKey(name));
+            } else {
+                defined.add(AlmaApiCommand.wrapKey(name));
+            }
+        }
+
+        // variables created by every command, needed to tell variables that are used too early from undefined ones
+        List<Set<String>> created = new ArrayList<>();
+        for (HierarchicalConfiguration commandConfig : commandConfigs) {
+            created.add(getCreatedVariables(commandConfig));
+        }
+
+        // variables created by a target or an update, mapped to the command that created them last, until they are used
+        Map<String, String> unused = new LinkedHashMap<>();
+        for (int i = 0; i < commandConfigs.size(); ++i) {
+            HierarchicalConfiguration commandConfig = commandConfigs.get(i);
+            String label = "Command " + (i + 1) + " (" + commandConfig.getString("@method") + " " + commandConfig.getString("@endpoint") + ")";
+
+            for (String variable : validator.getUsedVariables(commandConfig, label)) {
+                unused.remove(variable);
+                if (defined.contains(variable)) {
+                    continue;
+                }
+                if (conditional.contains(variable)) {
+                    validator.warnings.add(label + " uses " + variable + ", which is only defined if the condition of its <variable> matches.");
+                } else {
+                    validator.errors.add(label + " uses " + variable + ", " + getCreator(created, i, variable));
+                }
+            }
+            validator.checkResponseType(commandConfig, label);
+
+            for (String variable : created.get(i)) {
+                defined.add(variable);
+                unused.put(variable, label);
+            }
+        }
+
+        for (HierarchicalConfiguration saveConfig : saveConfigs) {
+            String value = saveConfig.getString("@value", "");
+            String label = "The save entry " + saveConfig.getString("@name");
+            if (StringUtils.isBlank(value)) {
+                validator.errors.add(label + " has no value.");
+                continue;
+            }
+            String variable = AlmaApiCommand.wrapKey(value);
+            unused.remove(variable);
+            if (defined.contains(variable)) {
+                continue;
+            }
+            // unknown variables are saved as empty values, which is only a mistake if a variable was meant
+            if (conditional.contains(variable)) {
+                validator.warnings.add(label + " uses " + variable + ", which is only defined if the condition of its <variable> matches.");
+            } else if (value.contains("$")) {
+                validator.errors.add(label + " uses the undefined variable " + variable + ".");
+            } else {
+                validator.warnings.add(label + " uses the undefined variable " + variable + ", an empty value will be saved.");
+            }
+        }
+
+        for (Map.Entry<String, String> variable : unused.entrySet()) {
+            validator.warnings.add(variable.getValue() + " creates " + variable.getKey() + ", which is never used.");
+        }
+        return validator;
+    }
+
+    public boolean isValid() {
+        return errors.isEmpty();
+    }
+
+    /**
+     * get all variables created by the targets and the update of a command
+     *
+     * @param config configuration of the command
+     * @return set of wrapped variable names
+     */
+    private static Set<String> getCreatedVariables(HierarchicalConfiguration config) {
+        Set<String> variables = new LinkedHashSet<>();
+        for (HierarchicalConfiguration targetConfig : config.configurationsAt("target")) {
+            String name = targetConfig.getString("@var");
+            if (StringUtils.isNotBlank(name)) {
+                variables.add(AlmaApiCommand.wrapKey(name));
+            }
+        }
+        String updateName = config.getString("update/@var");
+        if (StringUtils.isNotBlank(updateName)) {
+            variables.add(AlmaApiCommand.wrapKey(updateName));
+        }
+        return variables;
+    }
+
+    /**
+     * explain why a variable is not available to a command
+     *
+     * @param created variables created by every command
+     * @param commandIndex index of the command using the variable
+     * @param variable wrapped variable name
+     * @return explanation to complete an error message
+     */
+    private static String getCreator(List<Set<String>> created, int commandIndex, String variable) {
+        if (created.get(commandIndex).contains(variable)) {
+            return "which is created by the command itself.";
+        }
+        for (int j = commandIndex + 1; j < created.size(); ++j) {
+            if (created.get(j).contains(variable)) {
+                return "which is created later by command " + (j + 1) + ".";
+            }
+        }
+        return "which is not defined.";
+    }
+
+    /**
+     * get all variables that are resolved when a command is run, i.e. in its endpoint, body and filter
+     *
+     * @param config configuration of the command
+     * @param label name of the command used in messages
+     * @return set of wrapped variable names
+     */
+    private Set<String> getUsedVariables(HierarchicalConfiguration config, String label) {
+        Set<String> variables = new LinkedHashSet<>();
+
+        String endpoint = config.getString("@endpoint");
+        if (StringUtils.isBlank(endpoint)) {
+            errors.add(label + " has no endpoint.");
+        } else {
+            // every placeholder of the endpoint is configured by a sub-tag of the same name
+            Matcher matcher = PLACEHOLDER_PATTERN.matcher(endpoint);
+            while (matcher.find()) {
+                String placeholder = matcher.group(1);
+                String value = placeholder.startsWith("$") ? null : config.getString(placeholder);
+                if (value == null) {
+                    errors.add(label + " has no sub-tag <" + placeholder + "> for the placeholder " + matcher.group() + ".");
+                } else {
+                    addVariables(variables, value);
+                }
+            }
+        }
+
+        addVariables(variables, config.getString("body/@value"));
+        String bodySource = config.getString("body/@src", "");
+        if (bodySource.startsWith("{$") || bodySource.startsWith("$")) {
+            variables.add(AlmaApiCommand.wrapKey(bodySource));
+        } else if (StringUtils.isNotBlank(bodySource)) {
+            // the variables of a body file are replaced like the ones of a body value
+            addVariables(variables, readBodySource(bodySource, label));
+        }
+
+        String filterValue = config.getString("filter/@value", "");
+        if (filterValue.contains("$")) {
+            variables.add(AlmaApiCommand.wrapKey(filterValue));
+        }
+        return variables;
+    }
+
+    /**
+     * read a body file, so that its variables can be checked as well
+     *
+     * @param bodySource path of the file
+     * @param label name of the command used in messages
+     * @return content of the file, or null if it cannot be read
+     */
+    private String readBodySource(String bodySource, String label) {
+        try {
+            Path path = Paths.get(bodySource);
+            if (!Files.isRegularFile(path)) {
+                warnings.add(label + " reads its body from " + bodySource + ", which does not exist.");
+                return null;
+            }
+            // comments are removed from the body when the command is run, hence their variables are never used
+            return Files.readString(path, StandardCharsets.UTF_8).replaceAll(AlmaApiCommand.XML_COMMENT_PATTERN, "");
+        } catch (IOException | InvalidPathException e) {
+            warnings.add(label + " reads its body from " + bodySource + ", which cannot be read: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void addVariables(Set<String> variables, String value) {
+        if (value == null) {
+            return;
+        }
+        Matcher matcher = VARIABLE_PATTERN.matcher(value);
+        while (matcher.find()) {
+            variables.add(matcher.group());
+        }
+    }
+
+    /**
+     * check that the targets, the filter and the update of a command fit the type of its responses
+     *
+     * @param config configuration of the command
+     * @param label name of the command used in messages
+     */
+    private void checkResponseType(HierarchicalConfiguration config, String label) {
+        String accept = config.getString("@accept", "json");
+        String[] parts = accept.split("/");
+        String type = parts.length > 0 ? parts[parts.length - 1].toLowerCase() : "json";
+        if (!"xml".equals(type) && !"json".equals(type)) {
+            warnings.add(label + " accepts the unknown type " + accept + ", json is used instead.");
+        }
+        boolean xml = "xml".equals(type);
+
+        for (HierarchicalConfiguration targetConfig : config.configurationsAt("target")) {
+            String name = targetConfig.getString("@var");
+            String path = targetConfig.getString("@path", "");
+            if (StringUtils.isBlank(name) || StringUtils.isBlank(path)) {
+                errors.add(label + " has a <target> without var or path.");
+            } else if (xml && !path.contains("/")) {
+                // JSON paths are dotted, e.g. item.item_data.pid, while every XPath contains a slash
+                errors.add(label + " accepts XML, but the target " + name + " has the path " + path + ", which is no XPath.");
+            } else if (!xml && path.startsWith("/")) {
+                errors.add(label + " accepts JSON, but the target " + name + " has the XPath " + path + ".");
+            }
+        }
+
+        if (xml && StringUtils.isNotBlank(config.getString("filter/@key"))) {
+            warnings.add(label + " accepts XML, its filter is only applied to JSON responses and will be ignored.");
+        }
+        if (xml && !config.configurationsAt("update/entry").isEmpty()) {
+            warnings.add(label + " accepts XML, its update entries are only applied to JSON responses and will be ignored.");
+        }
+    }
+
+}
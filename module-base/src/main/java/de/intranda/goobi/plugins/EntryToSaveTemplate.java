@@ -19,13 +19,17 @@
 
 package de.intranda.goobi.plugins;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.MetadataGroupType;
+import ugh.dl.MetadataType;
+import ugh.dl.Prefs;
 
+@Log4j2
 @Getter
-@AllArgsConstructor
 public class EntryToSaveTemplate {
 
     private String type;
@@ -34,4 +38,67 @@ public class EntryToSaveTemplate {
     private String choice;
     private boolean overwrite;
     private Map<String, String> groupMetadataMap;
+    // true if the values are saved whenever the variable is updated, instead of once after all commands
+    private boolean stream;
+
+    // types resolved from the ruleset once when the save plan is compiled, null if the entry is not saved as metadata
+    private MetadataType metadataType;
+    private MetadataGroupType metadataGroupType;
+    private Map<String, MetadataType> groupMetadataTypes;
+
+    public EntryToSaveTemplate(String type, String name, String value, String choice, boolean overwrite, Map<String, String> groupMetadataMap) {
+        this(type, name, value, choice, overwrite, groupMetadataMap, false);
+    }
+
+    public EntryToSaveTemplate(String type, String name, String value, String choice, boolean overwrite, Map<String, String> groupMetadataMap,
+            boolean stream) {
+        this.type = type;
+        this.name = name;
+        this.value = value;
+        this.choice = choice;
+        this.overwrite = overwrite;
+        this.groupMetadataMap = groupMetadataMap;
+        this.stream = stream && isStreamable();
+        if (stream && !this.stream) {
+            log.warn("Only groups and entries with choice=\"each\" can be streamed, " + name + " is saved after all commands.");
+        }
+    }
+
+    /**
+     * check whether every value of the entry can be saved on its own, which is needed to save them while the commands are still running
+     * 
+     * @return true for groups and for entries with choice="each", false otherwise
+     */
+    public boolean isStreamable() {
+        return "group".equalsIgnoreCase(type) || "each".equals(choice);
+    }
+
+    /**
+     * resolve all MetadataType and MetadataGroupType objects needed by this entry, so that they need not be looked up for every value saved
+     * 
+     * @param prefs Prefs of the ruleset
+     */
+    public void resolveTypes(Prefs prefs) {
+        if ("metadata".equalsIgnoreCase(type)) {
+            metadataType = prefs.getMetadataTypeByName(name);
+            if (metadataType == null) {
+                log.warn("Unknown metadata type: " + name);
+            }
+
+        } else if ("group".equalsIgnoreCase(type)) {
+            metadataGroupType = prefs.getMetadataGroupTypeByName(name);
+            if (metadataGroupType == null) {
+                log.warn("Unknown metadata group type: " + name);
+            }
+            // keep the configured order of entries
+            groupMetadataTypes = new LinkedHashMap<>();
+            for (String metadataName : groupMetadataMap.keySet()) {
+                MetadataType mdType = prefs.getMetadataTypeByName(metadataName);
+                if (mdType == null) {
+                    log.warn("Unknown metadata type in group " + name + ": " + metadataName);
+                }
+                groupMetadataTypes.put(metadataName, mdType);
+            }
+        }
+    }
 }
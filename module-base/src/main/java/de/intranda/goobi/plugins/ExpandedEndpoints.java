@@ -0,0 +1,63 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Endpoints that are created by replacing a variable in other endpoints with each of its values. The endpoints are rendered when they are read,
+ * so that a variable with many values does not need one String per endpoint in memory. Expanding expanded endpoints again replaces several
+ * variables, with the values of the last variable changing fastest.
+ */
+public class ExpandedEndpoints extends AbstractList<String> {
+
+    private final List<String> baseEndpoints;
+    private final String variable;
+    private final List<String> values;
+    private final int size;
+
+    /**
+     * @param baseEndpoints endpoints that contain the variable
+     * @param variable wrapped name of the variable
+     * @param values values of the variable, they must not change afterwards
+     */
+    public ExpandedEndpoints(List<String> baseEndpoints, String variable, List<String> values) {
+        this.baseEndpoints = baseEndpoints;
+        this.variable = variable;
+        this.values = values;
+        this.size = Math.multiplyExact(baseEndpoints.size(), values.size());
+    }
+
+    @Override
+    public String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int valueCount = values.size();
+        return baseEndpoints.get(index / valueCount).replace(variable, values.get(index % valueCount));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,218 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Response cache in a folder that can be shared by several nodes, e.g. on the common Goobi data directory. Every response is written to a file
+ * named after its key, which starts with the expiry time and the charset of the response. Files are written to a temporary file first and then
+ * renamed atomically, so that no node ever reads an incomplete response.
+ *
+ * A memory-mapped index holds the hash and the expiry time of the latest key of every slot, so that expired responses are recognized without
+ * opening their files. The index is only a hint, the files are always authoritative.
+ *
+ * Expired responses that are never requested again are removed by a sweep when the cache is created, and again whenever as many responses were
+ * put as the index has slots. Each sweep reads the headers of at most that many files, and the next sweep continues where it stopped.
+ */
+@Log4j2
+public class FileResponseCache implements ResponseCache {
+
+    private static final String INDEX_FILE = "index";
+    // hash and expiry time of a key
+    private static final int SLOT_SIZE = 16;
+
+    private final Path folder;
+    private final int slots;
+    private final MappedByteBuffer index;
+    private final LongSupplier clock;
+    // number of puts since the last sweep
+    private final AtomicInteger puts = new AtomicInteger();
+    // number of files that the next sweep skips, since the previous sweep checked them already
+    private int sweepOffset;
+
+    public FileResponseCache(Path folder, int slots) throws IOException {
+        this(folder, slots, System::currentTimeMillis);
+    }
+
+    FileResponseCache(Path folder, int slots, LongSupplier clock) throws IOException {
+        this.folder = folder;
+        this.slots = slots;
+        this.clock = clock;
+        Files.createDirectories(folder);
+        try (FileChannel channel = FileChannel.open(folder.resolve(INDEX_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            index = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) slots * SLOT_SIZE);
+        }
+        sweep();
+    }
+
+    @Override
+    public ResponseBody get(String key) throws IOException {
+        long hash = hash(key);
+        int position = getPosition(hash);
+        long now = clock.getAsLong();
+        synchronized (index) {
+            if (index.getLong(position) == hash && index.getLong(position + 8) <= now) {
+                return null;
+            }
+        }
+
+        Path path = folder.resolve(key);
+        byte[] content;
+        try {
+            content = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        int lineEnd = 0;
+        while (lineEnd < content.length && content[lineEnd] != '\n') {
+            ++lineEnd;
+        }
+        String[] header = new String(content, 0, lineEnd, StandardCharsets.US_ASCII).split(" ");
+        if (header.length != 2 || Long.parseLong(header[0]) <= now) {
+            // expired responses are removed by the first node that notices them
+            Files.deleteIfExists(path);
+            return null;
+        }
+        byte[] body = lineEnd < content.length ? Arrays.copyOfRange(content, lineEnd + 1, content.length) : new byte[0];
+        return ResponseBody.of(body, Charset.forName(header[1]));
+    }
+
+    @Override
+    public void put(String key, ResponseBody response, long ttl) throws IOException {
+        long expiresAt = clock.getAsLong() + ttl;
+        Path temp = Files.createTempFile(folder, key, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write((expiresAt + " " + response.getCharset().name() + "\n").getBytes(StandardCharsets.US_ASCII));
+                response.writeTo(out);
+            }
+            Files.move(temp, folder.resolve(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        long hash = hash(key);
+        int position = getPosition(hash);
+        synchronized (index) {
+            index.putLong(position, hash);
+            index.putLong(position + 8, expiresAt);
+        }
+        log.debug("Response cached: " + key);
+        if (puts.incrementAndGet() >= slots) {
+            puts.set(0);
+            sweep();
+        }
+    }
+
+    /**
+     * delete expired responses, reading the headers of at most as many files as the index has slots
+     */
+    synchronized void sweep() {
+        long now = clock.getAsLong();
+        int skipped = 0;
+        int checked = 0;
+        int deleted = 0;
+        boolean complete = true;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                if (INDEX_FILE.equals(name) || name.endsWith(".tmp")) {
+                    continue;
+                }
+                if (skipped < sweepOffset) {
+                    ++skipped;
+                    continue;
+                }
+                if (checked >= slots) {
+                    complete = false;
+                    break;
+                }
+                ++checked;
+                if (getExpiresAt(path) <= now && Files.deleteIfExists(path)) {
+                    ++deleted;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to sweep the response cache " + folder, e);
+        }
+        // continue with the next files, or start from the beginning if all files were checked
+        sweepOffset = complete ? 0 : skipped + checked - deleted;
+        log.debug("Response cache swept: " + deleted + " of " + checked + " responses expired.");
+    }
+
+    /**
+     * read the expiry time from the header of a cached response
+     *
+     * @param path file of the response
+     * @return expiry time, or Long.MIN_VALUE if the header is invalid
+     * @throws IOException
+     */
+    private static long getExpiresAt(Path path) throws IOException {
+        StringBuilder expiresAt = new StringBuilder();
+        try (InputStream in = Files.newInputStream(path)) {
+            for (int b = in.read(); b >= '0' && b <= '9'; b = in.read()) {
+                expiresAt.append((char) b);
+            }
+        } catch (NoSuchFileException e) {
+            // removed by another node in the meantime
+            return Long.MAX_VALUE;
+        }
+        try {
+            return Long.parseLong(expiresAt.toString());
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private int getPosition(long hash) {
+        return (int) Long.remainderUnsigned(hash, slots) * SLOT_SIZE;
+    }
+
+    // 64-bit FNV-1a, 0 is reserved for empty slots
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); ++i) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+}
@@ -0,0 +1,257 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Hedging of idempotent requests. If a request takes longer than a given percentile of the recent latencies, a second identical request is sent,
+ * and the first response that arrives is used. The number of additional requests is limited by a budget, which is a percentage of all requests.
+ *
+ * Like the circuit breakers, all policies are shared by all executions of the step within the JVM, so that enough latencies are known.
+ */
+@Log4j2
+public class HedgingPolicy {
+
+    /**
+     * A single try to send a request, which can be aborted if another try was faster.
+     */
+    public interface Attempt<T> extends Callable<T> {
+        void abort();
+    }
+
+    private static final Map<String, HedgingPolicy> POLICIES = new ConcurrentHashMap<>();
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "alma-api-hedging");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // upper limit of unused budget, so that a long quiet period cannot be followed by a burst of hedged requests
+    private static final double MAX_BUDGET = 10;
+
+    @Getter
+    private final String name;
+    private final Settings settings;
+
+    // latencies of the most recent successful requests in milliseconds, used as a ring buffer
+    private final long[] latencies;
+    private int latencyPosition = 0;
+    private int latencyCount = 0;
+    private double budget = 0;
+
+    @Getter
+    private long requests;
+    @Getter
+    private long hedgedRequests;
+    @Getter
+    private long hedgeWins;
+
+    HedgingPolicy(String name, Settings settings) {
+        this.name = name;
+        this.settings = settings;
+        this.latencies = new long[settings.getWindowSize()];
+    }
+
+    /**
+     * get the policy for a backend host and an endpoint template, it is created if it does not exist yet
+     *
+     * @param host backend host
+     * @param endpointTemplate endpoint as configured, i.e. before any variable was replaced
+     * @param settings settings used if the policy is created
+     * @return HedgingPolicy
+     */
+    public static HedgingPolicy get(String host, String endpointTemplate, Settings settings) {
+        return POLICIES.computeIfAbsent(host + " " + endpointTemplate, k -> new HedgingPolicy(k, settings));
+    }
+
+    /**
+     * @return all policies created so far
+     */
+    public static Collection<HedgingPolicy> getAll() {
+        return new ArrayList<>(POLICIES.values());
+    }
+
+    /**
+     * run a request, and send a second one if the first one is too slow
+     *
+     * @param attempts creates a new attempt of the same request for each call
+     * @return result of the first successful attempt
+     * @throws IOException if all attempts failed
+     */
+    public <T> T execute(Supplier<Attempt<T>> attempts) throws IOException {
+        long delay = startRequest();
+        Attempt<T> primary = attempts.get();
+        if (delay < 0) {
+            // not enough latencies known yet, so there is nothing to compare with
+            try {
+                return timed(primary).call();
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        ExecutorCompletionService<T> completionService = new ExecutorCompletionService<>(EXECUTOR);
+        Map<Future<T>, Attempt<T>> running = new LinkedHashMap<>();
+        running.put(completionService.submit(timed(primary)), primary);
+        Throwable failure = null;
+        try {
+            Future<T> done = completionService.poll(delay, TimeUnit.MILLISECONDS);
+            if (done == null && tryAcquireHedge()) {
+                log.debug("No response after " + delay + " ms, sending a hedged request.");
+                Attempt<T> hedge = attempts.get();
+                running.put(completionService.submit(timed(hedge)), hedge);
+            }
+            while (!running.isEmpty()) {
+                if (done == null) {
+                    done = completionService.take();
+                }
+                Attempt<T> attempt = running.remove(done);
+                try {
+                    T result = done.get();
+                    if (attempt != primary) {
+                        recordHedgeWin();
+                    }
+                    return result;
+                } catch (ExecutionException e) {
+                    // wait for the other attempt, if there is one
+                    failure = e.getCause();
+                    done = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the response.", e);
+        } finally {
+            // the slower attempt is not needed anymore
+            for (Map.Entry<Future<T>, Attempt<T>> entry : running.entrySet()) {
+                entry.getValue().abort();
+                entry.getKey().cancel(true);
+            }
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        throw new IOException(failure);
+    }
+
+    /**
+     * wrap an attempt, so that the latency of a successful attempt is recorded
+     *
+     * @param attempt Attempt
+     * @return Callable
+     */
+    private <T> Callable<T> timed(Attempt<T> attempt) {
+        return () -> {
+            long start = System.nanoTime();
+            T result = attempt.call();
+            recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return result;
+        };
+    }
+
+    /**
+     * count a new request and calculate the delay after which it should be hedged
+     *
+     * @return delay in milliseconds, or -1 if not enough latencies are known yet
+     */
+    synchronized long startRequest() {
+        ++requests;
+        budget = Math.min(budget + settings.getBudget() / 100.0, MAX_BUDGET);
+        if (latencyCount < settings.getMinimumSamples()) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(settings.getPercentile() / 100.0 * latencyCount) - 1;
+        return sorted[Math.max(0, Math.min(index, latencyCount - 1))];
+    }
+
+    synchronized void recordLatency(long latency) {
+        latencies[latencyPosition] = latency;
+        latencyPosition = (latencyPosition + 1) % latencies.length;
+        latencyCount = Math.min(latencyCount + 1, latencies.length);
+    }
+
+    private synchronized boolean tryAcquireHedge() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        ++hedgedRequests;
+        return true;
+    }
+
+    private synchronized void recordHedgeWin() {
+        ++hedgeWins;
+    }
+
+    /**
+     * @return summary of all counters, used for logging
+     */
+    public synchronized String getMetrics() {
+        return "requests=" + requests + ", hedged=" + hedgedRequests + ", hedge wins=" + hedgeWins;
+    }
+
+    /**
+     * Parameters of a hedging policy.
+     */
+    @Getter
+    public static class Settings {
+        // percentile of the recent latencies after which a request is hedged
+        private final int percentile;
+        // number of recent latencies that are evaluated
+        private final int windowSize;
+        // number of latencies that are needed before any request is hedged
+        private final int minimumSamples;
+        // maximum percentage of additional requests
+        private final int budget;
+
+        public Settings(int percentile, int windowSize, int minimumSamples, int budget) {
+            this.percentile = Math.max(Math.min(percentile, 100), 1);
+            this.windowSize = Math.max(windowSize, 1);
+            this.minimumSamples = Math.max(Math.min(minimumSamples, this.windowSize), 1);
+            this.budget = Math.max(budget, 0);
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Default transport, which sends every request with a client of its own and therefore over a connection of its own, as needed by hedged requests.
+ */
+@Log4j2
+public class HttpClientTransport implements HttpTransport {
+
+    // create a custom response handler, which reads the response body only once into a byte buffer
+    private static final ResponseHandler<ResponseBody> RESPONSE_HANDLER = response -> {
+        log.debug("------- STATUS --- LINE -------");
+        log.debug(response.getStatusLine());
+        log.debug("------- STATUS --- LINE -------");
+        ResponseBody value = ResponseBody.read(response.getEntity());
+        if (response.getStatusLine().getStatusCode() > 399) {
+            // error code
+            throw HttpStatusException.of(response.getStatusLine().getStatusCode(), value);
+        }
+        return value;
+    };
+
+    @Override
+    public ResponseBody execute(HttpRequestBase request) throws IOException {
+        try (CloseableHttpClient client = createHttpClient()) {
+            return client.execute(request, RESPONSE_HANDLER);
+        }
+    }
+
+    /**
+     * create a client that leaves compressed responses as they are, so that ResponseBody can decode them and count the transferred bytes
+     * 
+     * @return CloseableHttpClient
+     */
+    private static CloseableHttpClient createHttpClient() {
+        return HttpClients.custom().disableContentCompression().build();
+    }
+
+}
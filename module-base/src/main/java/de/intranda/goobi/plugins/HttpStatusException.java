@@ -0,0 +1,68 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+
+import lombok.Getter;
+
+/**
+ * Exception for a response with an HTTP error status code, i.e. 400 or above.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    @Getter
+    private final int statusCode;
+
+    // raw body of the error response, or null if it is unknown
+    @Getter
+    private final transient ResponseBody body;
+
+    public HttpStatusException(int statusCode, String message) {
+        this(statusCode, message, null);
+    }
+
+    public HttpStatusException(int statusCode, String message, ResponseBody body) {
+        super(message);
+        this.statusCode = statusCode;
+        this.body = body;
+    }
+
+    /**
+     * create an exception for an error response, with a message that contains its status code and its body
+     *
+     * @param statusCode HTTP status code of the response
+     * @param body body of the response
+     * @return HttpStatusException
+     */
+    public static HttpStatusException of(int statusCode, ResponseBody body) {
+        return new HttpStatusException(statusCode, "HTTP status code is " + statusCode + ", response is " + body.asString(), body);
+    }
+
+    /**
+     * @return true if the server failed, false if the request was rejected, e.g. because a record does not exist
+     */
+    public boolean isServerError() {
+        return statusCode >= 500;
+    }
+
+}
@@ -0,0 +1,43 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Transport that sends the requests of all commands and reads their responses. Timeouts, deadlines, retries and hedging are handled by the plugin,
+ * hence a transport only has to send a single request that is completely prepared.
+ */
+public interface HttpTransport {
+
+    /**
+     * send a request and read its response
+     *
+     * @param request request with all headers, its body and its RequestConfig
+     * @return body of the response
+     * @throws HttpStatusException if the response has an error status code
+     * @throws IOException if the request failed
+     */
+    ResponseBody execute(HttpRequestBase request) throws IOException;
+
+}
@@ -0,0 +1,90 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+
+/**
+ * Creates the transport configured in a transport block.
+ */
+public class HttpTransports {
+
+    private HttpTransports() {
+        // hide the implicit one
+    }
+
+    /**
+     * create the transport of a configuration
+     *
+     * @param config HierarchicalConfiguration of the transport block, null if none is configured
+     * @param file path of the recording with all variables replaced, null if none is configured
+     * @return HttpTransport
+     * @throws IOException if a recording could not be started or read
+     * @throws IllegalArgumentException if the configuration is invalid
+     */
+    public static HttpTransport create(HierarchicalConfiguration config, Path file) throws IOException {
+        String type = config == null ? "http" : config.getString("type", "http");
+        switch (type) {
+            case "http":
+                return new HttpClientTransport();
+
+            case "record":
+                return new RecordingTransport(new HttpClientTransport(), requireFile(type, file));
+
+            case "replay":
+                return new ReplayTransport(requireFile(type, file), config.getBoolean("latency", false));
+
+            default:
+                // any other type is the name of a class implementing HttpTransport
+                return createTransport(type, config);
+        }
+    }
+
+    /**
+     * @param config HierarchicalConfiguration of the transport block, null if none is configured
+     * @return true if the configured transport records all requests
+     */
+    public static boolean isRecording(HierarchicalConfiguration config) {
+        return config != null && "record".equals(config.getString("type", "http"));
+    }
+
+    private static Path requireFile(String type, Path file) {
+        if (file == null) {
+            throw new IllegalArgumentException("A transport of type " + type + " needs a file.");
+        }
+        return file;
+    }
+
+    private static HttpTransport createTransport(String className, HierarchicalConfiguration config) {
+        try {
+            Class<? extends HttpTransport> transportClass = Class.forName(className).asSubclass(HttpTransport.class);
+            return transportClass.getConstructor(HierarchicalConfiguration.class).newInstance(config);
+        } catch (ClassNotFoundException | ClassCastException | NoSuchMethodException | InstantiationException | IllegalAccessException
+                | InvocationTargetException e) {
+            throw new IllegalArgumentException("Unknown transport type: " + className, e);
+        }
+    }
+
+}
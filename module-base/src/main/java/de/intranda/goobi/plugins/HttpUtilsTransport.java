@@ -0,0 +1,50 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+
+import io.goobi.workflow.api.connection.HttpUtils;
+
+/**
+ * Transport of the test mode, which reads the responses of GET requests via HttpUtils, so that they can be mocked in tests. All other requests are
+ * sent by the underlying transport.
+ */
+public class HttpUtilsTransport implements HttpTransport {
+
+    private HttpTransport delegate;
+
+    public HttpUtilsTransport(HttpTransport delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ResponseBody execute(HttpRequestBase request) throws IOException {
+        if (HttpGet.METHOD_NAME.equals(request.getMethod())) {
+            return ResponseBody.of(HttpUtils.getStringFromUrl(request.getURI().toString()));
+        }
+        return delegate.execute(request);
+    }
+
+}
@@ -0,0 +1,163 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.Arrays;
+
+/**
+ * Dictionary of distinct strings, e.g. record IDs, that are stored in one shared char buffer. Every string is stored only once and identified by
+ * its index, so that a list of many IDs only needs one int per value instead of one String object.
+ */
+public class IdDictionary {
+
+    private char[] chars;
+    private int length;
+    // start of every entry in chars, followed by the end of the last entry
+    private int[] offsets;
+    private int size;
+    // open addressing hash table of entry indices + 1, 0 marks an empty slot
+    private int[] table;
+
+    public IdDictionary() {
+        this(16);
+    }
+
+    public IdDictionary(int expectedSize) {
+        int capacity = Math.max(expectedSize, 4);
+        chars = new char[capacity * 8];
+        offsets = new int[capacity + 1];
+        table = new int[Integer.highestOneBit(capacity * 2 - 1) * 2];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * add a string, unless it is already stored
+     *
+     * @param value string that shall be stored
+     * @return index of the stored string
+     */
+    public int add(String value) {
+        int slot = findSlot(value);
+        if (table[slot] != 0) {
+            return table[slot] - 1;
+        }
+
+        int valueLength = value.length();
+        if (length + valueLength > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + valueLength));
+        }
+        value.getChars(0, valueLength, chars, length);
+        length += valueLength;
+        if (size + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[++size] = length;
+        table[slot] = size;
+
+        // keep the table at most half full, so that probing sequences stay short
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * get the index of a stored string
+     *
+     * @param value string to look for
+     * @return index of the string, or -1 if it is not stored
+     */
+    public int indexOf(String value) {
+        return table[findSlot(value)] - 1;
+    }
+
+    /**
+     * get a stored string
+     *
+     * @param index index of the string
+     * @return a new String with the stored characters
+     */
+    public String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return new String(chars, offsets[index], offsets[index + 1] - offsets[index]);
+    }
+
+    /**
+     * release the capacity that is not used, after all strings were added
+     */
+    public void trim() {
+        chars = Arrays.copyOf(chars, length);
+        offsets = Arrays.copyOf(offsets, size + 1);
+    }
+
+    private int findSlot(String value) {
+        int mask = table.length - 1;
+        int slot = spread(value.hashCode()) & mask;
+        while (table[slot] != 0 && !matches(table[slot] - 1, value)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean matches(int index, String value) {
+        int start = offsets[index];
+        int entryLength = offsets[index + 1] - start;
+        if (entryLength != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < entryLength; ++i) {
+            if (chars[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int index = 0; index < size; ++index) {
+            int slot = spread(hash(index)) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+    }
+
+    // same hash as String.hashCode(), so that stored entries and looked up strings end in the same slots
+    private int hash(int index) {
+        int h = 0;
+        for (int i = offsets[index]; i < offsets[index + 1]; ++i) {
+            h = 31 * h + chars[i];
+        }
+        return h;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+}
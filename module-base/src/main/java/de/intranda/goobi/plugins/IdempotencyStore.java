@@ -0,0 +1,145 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Folder of completed requests that must not be sent twice, e.g. POST, PUT or PATCH requests. Every completed request is stored in a file named
+ * after its fingerprint, which contains the charset and the body of its response. A request whose fingerprint is found is skipped, and its stored
+ * response is used instead.
+ *
+ * The store only serves to resume a failed run. Hence all requests of a successful run are cleared again, so that a later run may send the same
+ * requests, and records older than the optional time to live are ignored.
+ */
+@Log4j2
+public class IdempotencyStore {
+
+    private Path folder;
+    // time in milliseconds after which a record is ignored, 0 if records never expire
+    private long ttl;
+    // fingerprints of all requests recorded or skipped during this run
+    private Set<String> fingerprints = new HashSet<>();
+
+    public IdempotencyStore(Path folder) {
+        this(folder, 0);
+    }
+
+    public IdempotencyStore(Path folder, long ttl) {
+        this.folder = folder;
+        this.ttl = ttl;
+    }
+
+    /**
+     * create a stable fingerprint of a request
+     *
+     * @param method REST method
+     * @param endpoint endpoint with all variables replaced
+     * @param parameters request parameters, the API key must not be among them
+     * @param body request body
+     * @return fingerprint of the request
+     */
+    public static String getFingerprint(String method, String endpoint, Map<String, String> parameters, String body) {
+        // sort the parameters, so that their order does not matter
+        String sortedParameters = new TreeMap<>(parameters).toString();
+        return Fingerprint.of(method.toLowerCase(), endpoint, sortedParameters, body);
+    }
+
+    /**
+     * get the stored response of a completed request
+     *
+     * @param fingerprint fingerprint of the request
+     * @return the stored response, or null if the request was not completed yet
+     * @throws IOException
+     */
+    public ResponseBody get(String fingerprint) throws IOException {
+        Path path = folder.resolve(fingerprint);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        if (ttl > 0 && Files.getLastModifiedTime(path).toMillis() + ttl < System.currentTimeMillis()) {
+            log.debug("Ignoring expired record of request " + fingerprint);
+            Files.deleteIfExists(path);
+            return null;
+        }
+        addFingerprint(fingerprint);
+        byte[] content = Files.readAllBytes(path);
+        int lineEnd = 0;
+        while (lineEnd < content.length && content[lineEnd] != '\n') {
+            ++lineEnd;
+        }
+        Charset charset = Charset.forName(new String(content, 0, lineEnd, StandardCharsets.US_ASCII));
+        byte[] body = lineEnd < content.length ? Arrays.copyOfRange(content, lineEnd + 1, content.length) : new byte[0];
+        return ResponseBody.of(body, charset);
+    }
+
+    /**
+     * record a completed request
+     *
+     * @param fingerprint fingerprint of the request
+     * @param response response of the request
+     * @throws IOException
+     */
+    public void put(String fingerprint, ResponseBody response) throws IOException {
+        Files.createDirectories(folder);
+        // write to a temporary file first, so that a request is never recorded with an incomplete response
+        Path temp = Files.createTempFile(folder, fingerprint, ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            out.write((response.getCharset().name() + "\n").getBytes(StandardCharsets.US_ASCII));
+            response.writeTo(out);
+        }
+        Files.move(temp, folder.resolve(fingerprint), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        addFingerprint(fingerprint);
+        log.debug("Request recorded as completed: " + fingerprint);
+    }
+
+    /**
+     * delete the records of all requests recorded or skipped during this run, which is called after a successful run, since there is nothing left
+     * to resume then
+     */
+    public synchronized void clear() {
+        for (String fingerprint : fingerprints) {
+            try {
+                Files.deleteIfExists(folder.resolve(fingerprint));
+            } catch (IOException e) {
+                log.error("Failed to delete the record of request " + fingerprint, e);
+            }
+        }
+        fingerprints.clear();
+    }
+
+    private synchronized void addFingerprint(String fingerprint) {
+        fingerprints.add(fingerprint);
+    }
+
+}
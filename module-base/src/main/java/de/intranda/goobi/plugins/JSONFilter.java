@@ -0,0 +1,293 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Evaluates a configured &lt;filter&gt; on a response. The filter key and all targets share a common heading path, e.g. <code>item</code> for the
+ * key <code>item.item_data.alternative_call_number</code> and the target <code>item.item_data.pid</code>. The elements found under this common
+ * path are the candidates, and only the candidates whose key value matches one of the filter values are used to retrieve the targets.
+ */
+@Log4j2
+public class JSONFilter {
+
+    // number of candidates from which on a hash index over the filter key is built instead of matching every candidate one by one
+    static final int INDEX_THRESHOLD = 64;
+
+    private static Random random = new Random();
+
+    @Getter
+    private String key;
+    @Getter
+    private String fallbackKey;
+    @Getter
+    private String alternativeOption;
+
+    public JSONFilter(String key, String fallbackKey, String alternativeOption) {
+        this.key = key;
+        this.fallbackKey = StringUtils.isBlank(fallbackKey) ? key : fallbackKey;
+        this.alternativeOption = alternativeOption;
+    }
+
+    /**
+     * retrieve the values of all targets from the candidates that match one of the filter values
+     *
+     * @param targets list of targets
+     * @param document JSON document, i.e. the parsed response
+     * @param filterValues values that the filter key is compared with
+     * @return a map with its keys being names of target variables and its values being the values found
+     */
+    public Map<String, List<Object>> getFilteredValues(List<Target> targets, Object document, Collection<String> filterValues) {
+        return getFilteredValues(targets, document, filterValues, alternativeOption);
+    }
+
+    /**
+     * retrieve the values of all targets from the candidates that match one of the filter values, with a different alternative option
+     *
+     * @param targets list of targets
+     * @param document JSON document, i.e. the parsed response
+     * @param filterValues values that the filter key is compared with
+     * @param alternative alternative option that is applied if no candidate matches
+     * @return a map with its keys being names of target variables and its values being the values found
+     */
+    public Map<String, List<Object>> getFilteredValues(List<Target> targets, Object document, Collection<String> filterValues, String alternative) {
+        List<String> keyTokens = splitPath(key);
+        List<String> fallbackTokens = splitPath(fallbackKey);
+        int headLength = getHeadLength(targets);
+        String headPath = joinPath(keyTokens, 0, headLength);
+        String keyPath = joinPath(keyTokens, headLength, keyTokens.size());
+        String fallbackPath = joinPath(fallbackTokens, headLength, fallbackTokens.size());
+        log.debug("filter heading path = '" + headPath + "', key = '" + keyPath + "', fallback = '" + fallbackPath + "'");
+
+        List<Object> candidates = JSONUtils.getValuesFromSourceGeneral(headPath, document);
+        List<Object> selected = selectCandidates(candidates, keyPath, fallbackPath, filterValues, alternative);
+
+        Map<String, List<Object>> results = new HashMap<>();
+        for (Target target : targets) {
+            List<String> targetTokens = splitPath(target.getPath());
+            String targetPath = joinPath(targetTokens, headLength, targetTokens.size());
+            List<Object> values = new ArrayList<>();
+            for (Object candidate : selected) {
+                values.addAll(JSONUtils.getValuesFromSource(targetPath, candidate));
+            }
+            results.put(target.getVariableName(), values);
+        }
+
+        return results;
+    }
+
+    /**
+     * count the candidates found under the common heading path, regardless of whether they match
+     *
+     * @param targets list of targets
+     * @param document JSON document, i.e. the parsed response
+     * @return number of candidates
+     */
+    public int getCandidateCount(List<Target> targets, Object document) {
+        return JSONUtils.getValuesFromSourceGeneral(joinPath(splitPath(key), 0, getHeadLength(targets)), document).size();
+    }
+
+    /**
+     * get the length of the common heading path shared by key, fallback key and all targets
+     *
+     * @param targets list of targets
+     * @return number of path tokens
+     */
+    private int getHeadLength(List<Target> targets) {
+        List<String> keyTokens = splitPath(key);
+        List<String> fallbackTokens = splitPath(fallbackKey);
+        int headLength = Math.min(keyTokens.size(), fallbackTokens.size()) - 1;
+        headLength = getCommonPrefixLength(keyTokens, fallbackTokens, headLength);
+        for (Target target : targets) {
+            headLength = getCommonPrefixLength(keyTokens, splitPath(target.getPath()), headLength);
+        }
+        return headLength;
+    }
+
+    /**
+     * select all candidates whose key value matches one of the filter values, or apply the alternative option if there is no match at all
+     *
+     * @param candidates list of candidates found under the common heading path
+     * @param keyPath path of the filter key relative to a candidate
+     * @param fallbackPath path of the fallback key relative to a candidate
+     * @param filterValues values that the filter key is compared with
+     * @param alternative alternative option that is applied if no candidate matches
+     * @return list of selected candidates, in the same order as they appear in the response
+     */
+    List<Object> selectCandidates(List<Object> candidates, String keyPath, String fallbackPath, Collection<String> filterValues,
+            String alternative) {
+        BitSet matches = candidates.size() < INDEX_THRESHOLD ? matchOneByOne(candidates, keyPath, fallbackPath, filterValues)
+                : matchIndexed(candidates, keyPath, fallbackPath, filterValues);
+
+        if (!matches.isEmpty()) {
+            log.debug("filter matched " + matches.cardinality() + " of " + candidates.size() + " candidates");
+            List<Object> selected = new ArrayList<>(matches.cardinality());
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                selected.add(candidates.get(i));
+            }
+            return selected;
+        }
+
+        log.debug("no match found, applying alternative option: " + alternative);
+        List<Object> selected = new ArrayList<>();
+        if (candidates.isEmpty()) {
+            return selected;
+        }
+        switch (alternative) {
+            case "all":
+                selected.addAll(candidates);
+                break;
+            case "first":
+                selected.add(candidates.get(0));
+                break;
+            case "last":
+                selected.add(candidates.get(candidates.size() - 1));
+                break;
+            case "random":
+                selected.add(candidates.get(random.nextInt(candidates.size())));
+                break;
+            default:
+                // none: filter everything out
+        }
+        return selected;
+    }
+
+    /**
+     * compare the key value of every candidate with the filter values
+     */
+    private BitSet matchOneByOne(List<Object> candidates, String keyPath, String fallbackPath, Collection<String> filterValues) {
+        Set<String> values = filterValues instanceof Set ? (Set<String>) filterValues : new HashSet<>(filterValues);
+        BitSet matches = new BitSet(candidates.size());
+        for (int i = 0; i < candidates.size(); ++i) {
+            for (String keyValue : getKeyValues(candidates.get(i), keyPath, fallbackPath)) {
+                if (values.contains(keyValue)) {
+                    matches.set(i);
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * build a hash index over the key values of all candidates, and look up every filter value in it
+     */
+    private BitSet matchIndexed(List<Object> candidates, String keyPath, String fallbackPath, Collection<String> filterValues) {
+        Map<String, BitSet> index = new HashMap<>();
+        for (int i = 0; i < candidates.size(); ++i) {
+            for (String keyValue : getKeyValues(candidates.get(i), keyPath, fallbackPath)) {
+                index.computeIfAbsent(keyValue, k -> new BitSet()).set(i);
+            }
+        }
+        log.debug("filter index built with " + index.size() + " distinct keys for " + candidates.size() + " candidates");
+
+        BitSet matches = new BitSet(candidates.size());
+        for (String filterValue : filterValues) {
+            BitSet positions = index.get(filterValue);
+            if (positions != null) {
+                matches.or(positions);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * get the values of the filter key of one candidate, or the values of the fallback key if the filter key contains no value
+     */
+    private List<String> getKeyValues(Object candidate, String keyPath, String fallbackPath) {
+        List<String> results = collectStrings(JSONUtils.getValuesFromSourceGeneral(keyPath, candidate));
+        if (results.isEmpty() && !fallbackPath.equals(keyPath)) {
+            results = collectStrings(JSONUtils.getValuesFromSourceGeneral(fallbackPath, candidate));
+        }
+        return results;
+    }
+
+    private List<String> collectStrings(List<Object> values) {
+        List<String> results = new ArrayList<>(values.size());
+        for (Object value : values) {
+            if (value instanceof Collection) {
+                for (Object element : (Collection<?>) value) {
+                    if (element != null) {
+                        results.add(String.valueOf(element));
+                    }
+                }
+            } else if (value != null) {
+                results.add(String.valueOf(value));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * split a JSON path on dots, ignoring dots enclosed by brackets such as in <code>[?(@.role=='x')]</code>
+     *
+     * @param path JSON path, with or without the heading <code>$.</code>
+     * @return list of path tokens
+     */
+    static List<String> splitPath(String path) {
+        List<String> tokens = new ArrayList<>();
+        if (StringUtils.isBlank(path)) {
+            return tokens;
+        }
+        String trimmed = path.startsWith("$.") ? path.substring(2) : path;
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < trimmed.length(); ++i) {
+            char c = trimmed.charAt(i);
+            if (c == '[' || c == '(') {
+                ++depth;
+            } else if (c == ']' || c == ')') {
+                --depth;
+            } else if (c == '.' && depth == 0) {
+                tokens.add(trimmed.substring(start, i));
+                start = i + 1;
+            }
+        }
+        tokens.add(trimmed.substring(start));
+        return tokens;
+    }
+
+    private static int getCommonPrefixLength(List<String> first, List<String> second, int maxLength) {
+        int length = 0;
+        while (length < maxLength && length < second.size() && first.get(length).equals(second.get(length))) {
+            ++length;
+        }
+        return length;
+    }
+
+    private static String joinPath(List<String> tokens, int from, int to) {
+        return from >= to ? "" : String.join(".", tokens.subList(from, to));
+    }
+
+}
@@ -19,12 +19,16 @@
 
 package de.intranda.goobi.plugins;
 
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringEscapeUtils;
@@ -55,6 +59,29 @@ public class JSONUtils {
         return Configuration.defaultConfiguration().jsonProvider().parse(s);
     }
 
+    /**
+     * parse the input response body to get a JSONObject, directly from its bytes without creating a String first
+     * 
+     * @param body ResponseBody
+     * @return JSONObject
+     * @throws InvalidJsonException
+     */
+    public static Object getJSONObjectFromResponse(ResponseBody body) throws InvalidJsonException {
+        return Configuration.defaultConfiguration().jsonProvider().parse(body.newInputStream(), body.getCharset().name());
+    }
+
+    /**
+     * parse the input stream to get a JSONObject, without creating a String first
+     * 
+     * @param in InputStream
+     * @param charset charset of the stream
+     * @return JSONObject
+     * @throws InvalidJsonException
+     */
+    public static Object getJSONObjectFromStream(InputStream in, Charset charset) throws InvalidJsonException {
+        return Configuration.defaultConfiguration().jsonProvider().parse(in, charset.name());
+    }
+
     /**
      * a general version to get values from a JSON path from an object
      * 
@@ -156,6 +183,31 @@ public class JSONUtils {
         return results;
     }
 
+    /**
+     * get the values of all paths for every record, e.g. to create one metadata group per record
+     * 
+     * @param paths JSON paths
+     * @param records JSONObjects
+     * @param parallelThreshold number of records from which the records are evaluated in parallel
+     * @return values of every path as strings for every record, in the order of the records and the paths
+     */
+    public static List<List<List<String>>> getValuesOfRecords(List<String> paths, List<Object> records, int parallelThreshold) {
+        // the records are independent of each other, and the parallel stream keeps their order when they are collected
+        Stream<Object> stream = records.size() >= parallelThreshold ? records.parallelStream() : records.stream();
+        return stream.map(rec -> {
+            List<List<String>> recordValues = new ArrayList<>(paths.size());
+            for (String path : paths) {
+                List<Object> values = getValuesFromSourceGeneral(path, rec);
+                List<String> stringValues = new ArrayList<>(values.size());
+                for (Object val : values) {
+                    stringValues.add(getValueAsString(val));
+                }
+                recordValues.add(stringValues);
+            }
+            return recordValues;
+        }).collect(Collectors.toList());
+    }
+
     public static String getValueAsString(Object value) {
         String anwer = null;
         if (value instanceof String) {
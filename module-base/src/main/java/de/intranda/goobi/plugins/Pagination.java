@@ -0,0 +1,106 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+
+import lombok.Getter;
+
+/**
+ * Settings of a command whose endpoints return lists in pages, which are requested via offset and limit parameters, like the list endpoints of Alma.
+ */
+@Getter
+public class Pagination {
+
+    public static final String DEFAULT_JSON_TOTAL_PATH = "total_record_count";
+    public static final String DEFAULT_XML_TOTAL_PATH = "/*/@total_record_count";
+
+    // number of records per page
+    private int limit;
+    private String offsetParameter;
+    private String limitParameter;
+    // path of the total number of records in the first page, a JSON path or an XPath expression depending on the accepted format
+    private String totalPath;
+    // number of pages that are requested concurrently once the total number is known
+    private int prefetch;
+    // maximum number of records, 0 for all
+    private int maxRecords;
+
+    public Pagination(HierarchicalConfiguration config, boolean xml) {
+        limit = Math.max(config.getInt("@limit", 100), 1);
+        offsetParameter = config.getString("@offset-parameter", "offset");
+        limitParameter = config.getString("@limit-parameter", "limit");
+        totalPath = config.getString("@total", xml ? DEFAULT_XML_TOTAL_PATH : DEFAULT_JSON_TOTAL_PATH);
+        prefetch = Math.max(config.getInt("@prefetch", 2), 1);
+        maxRecords = Math.max(config.getInt("@max-records", 0), 0);
+    }
+
+    /**
+     * get the parameters of a page request
+     *
+     * @param parameters parameters configured for the command
+     * @param offset offset of the first record of the page
+     * @return new map with all parameters and the offset and limit
+     */
+    public Map<String, String> getPageParameters(Map<String, String> parameters, int offset) {
+        Map<String, String> pageParameters = new LinkedHashMap<>(parameters);
+        pageParameters.put(offsetParameter, String.valueOf(offset));
+        pageParameters.put(limitParameter, String.valueOf(limit));
+        return pageParameters;
+    }
+
+    /**
+     * get the offsets of all pages after the first one
+     *
+     * @param total total number of records as reported by the first page
+     * @return list of offsets in ascending order
+     */
+    public List<Integer> getRemainingOffsets(long total) {
+        long end = maxRecords > 0 ? Math.min(total, maxRecords) : total;
+        List<Integer> offsets = new ArrayList<>();
+        for (long offset = limit; offset < end; offset += limit) {
+            offsets.add((int) offset);
+        }
+        return offsets;
+    }
+
+    /**
+     * parse the total number of records
+     *
+     * @param values values found under the total path
+     * @return total number, or -1 if it is unknown
+     */
+    public static long parseTotal(List<Object> values) {
+        if (values == null || values.isEmpty() || values.get(0) == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(String.valueOf(values.get(0)).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.goobi.beans.Processproperty;
+
+import de.sub.goobi.persistence.managers.PropertyManager;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Collects all process properties that are saved during one run. The existing properties of the process are loaded at most once, all changes are
+ * applied in memory, and every changed property is written exactly once when the batch is flushed.
+ */
+@Log4j2
+public class ProcessPropertyBatch {
+
+    private int processId;
+
+    // properties of the process loaded from the database, null as long as they were not needed
+    private List<Processproperty> loadedProperties;
+    // properties created during this run, which will follow the loaded ones once they are written
+    private List<Processproperty> createdProperties = new ArrayList<>();
+    // properties that must be written when the batch is flushed, in the order of their first modification
+    private Set<Processproperty> modified = Collections.newSetFromMap(new IdentityHashMap<>());
+    private List<Processproperty> modifiedInOrder = new ArrayList<>();
+
+    @Getter
+    private int databaseRoundTrips = 0;
+
+    public ProcessPropertyBatch(int processId) {
+        this.processId = processId;
+    }
+
+    /**
+     * set the value of a process property
+     *
+     * @param title title of the process property
+     * @param value new value
+     * @param overwrite true if an existing old Processproperty object should be used, false if a new one should be created no matter what
+     */
+    public void setProperty(String title, String value, boolean overwrite) {
+        Processproperty property = overwrite ? findProperty(title) : null;
+        if (property == null) {
+            property = new Processproperty();
+            property.setTitel(title);
+            property.setProcessId(processId);
+            createdProperties.add(property);
+        }
+        property.setWert(value);
+        if (modified.add(property)) {
+            modifiedInOrder.add(property);
+        }
+    }
+
+    /**
+     * write all modified properties to the database, properties that could not be written stay modified, so that a later flush retries them
+     *
+     * @return true if all modified properties were written, false if any of them failed
+     */
+    public boolean flush() {
+        List<Processproperty> failed = new ArrayList<>();
+        for (Processproperty property : modifiedInOrder) {
+            ++databaseRoundTrips;
+            try {
+                PropertyManager.saveProcessProperty(property);
+            } catch (RuntimeException e) {
+                log.error("Failed to save process property " + property.getTitel() + " of process " + processId, e);
+                failed.add(property);
+            }
+        }
+        log.debug((modifiedInOrder.size() - failed.size()) + " process properties written");
+        modified.clear();
+        modifiedInOrder.clear();
+        for (Processproperty property : failed) {
+            modified.add(property);
+            modifiedInOrder.add(property);
+        }
+        return failed.isEmpty();
+    }
+
+    private Processproperty findProperty(String title) {
+        if (loadedProperties == null) {
+            // load the existing properties only once, and only if they are needed
+            loadedProperties = new ArrayList<>(PropertyManager.getProcessPropertiesForProcess(processId));
+            ++databaseRoundTrips;
+        }
+        for (Processproperty p : loadedProperties) {
+            if (title.equals(p.getTitel())) {
+                return p;
+            }
+        }
+        for (Processproperty p : createdProperties) {
+            if (title.equals(p.getTitel())) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,162 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Transport that sends every request via another transport, and records it together with its response and its latency, so that a ReplayTransport
+ * can serve the same requests later without any network access.
+ *
+ * The recording is a file of gzip members, one per request, each holding the key of the request, the latency in milliseconds, the status code, the
+ * charset and the body of the response. Error responses are recorded with their status code, so that they are replayed as errors. The key is a
+ * fingerprint of the method, the url without the API key and the request body, hence a recording never contains the API key and can be replayed
+ * with another one.
+ *
+ * Every member is appended while the file is locked, so that runs sharing a recording never mix up their members. As every run starts a new
+ * recording, each process should record into a file of its own though, e.g. by using {processid} in its path.
+ */
+public class RecordingTransport implements HttpTransport {
+
+    // status code of successful responses, the actual one is not passed on by the transports
+    static final int STATUS_OK = 200;
+
+    // monitors of the recordings, as a file lock is held by the whole JVM and cannot be used to order the threads within it
+    private static final Map<Path, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private HttpTransport delegate;
+    private Path file;
+    private Object lock;
+
+    /**
+     * create a transport that starts a new recording, which replaces any old one
+     *
+     * @param delegate transport that actually sends the requests
+     * @param file path of the recording
+     * @throws IOException
+     */
+    public RecordingTransport(HttpTransport delegate, Path file) throws IOException {
+        this.delegate = delegate;
+        this.file = file;
+        this.lock = LOCKS.computeIfAbsent(file.toAbsolutePath().normalize(), path -> new Object());
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        synchronized (lock) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    FileLock fileLock = channel.lock()) {
+                channel.truncate(0);
+            }
+        }
+    }
+
+    @Override
+    public ResponseBody execute(HttpRequestBase request) throws IOException {
+        String key = getKey(request);
+        long start = System.currentTimeMillis();
+        try {
+            ResponseBody response = delegate.execute(request);
+            record(key, System.currentTimeMillis() - start, STATUS_OK, response);
+            return response;
+        } catch (HttpStatusException e) {
+            ResponseBody body = e.getBody() != null ? e.getBody() : ResponseBody.of(new byte[0], StandardCharsets.UTF_8);
+            record(key, System.currentTimeMillis() - start, e.getStatusCode(), body);
+            throw e;
+        }
+    }
+
+    private void record(String key, long latency, int statusCode, ResponseBody response) throws IOException {
+        // every request is appended as a gzip member of its own, and concatenated members form a valid gzip file
+        ByteArrayOutputStream member = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(member))) {
+            out.writeUTF(key);
+            out.writeLong(latency);
+            out.writeInt(statusCode);
+            out.writeUTF(response.getCharset().name());
+            out.writeInt(response.getLength());
+            response.writeTo(out);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(member.toByteArray());
+        synchronized (lock) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    FileLock fileLock = channel.lock()) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * get the key of a request, which is the same for identical requests sent with different API keys
+     *
+     * @param request HttpRequestBase
+     * @return fingerprint of the request
+     * @throws IOException if the body of the request could not be read
+     */
+    static String getKey(HttpRequestBase request) throws IOException {
+        MessageDigest digest = Fingerprint.newDigest();
+        digest.update(request.getMethod().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(getUrlWithoutApiKey(request).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            // a body that can only be read once is needed for sending, hence it is not part of the key
+            if (entity != null && entity.isRepeatable()) {
+                try (OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+                    entity.writeTo(out);
+                }
+            }
+        }
+        return Fingerprint.toHex(digest.digest());
+    }
+
+    /**
+     * get the url of a request without the API key, which is safe to be logged
+     *
+     * @param request HttpRequestBase
+     * @return url without the parameter apikey
+     */
+    static String getUrlWithoutApiKey(HttpRequestBase request) {
+        return request.getURI().toString().replaceAll("([?&])apikey=[^&]*&?", "$1");
+    }
+
+}
@@ -0,0 +1,114 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Transport that serves the responses recorded by a RecordingTransport instead of sending any request. Identical requests get their recorded
+ * responses in the order they were recorded, and the last one is repeated if there are more requests than recorded responses. If wanted, every
+ * response is delayed by its recorded latency, so that the timing of the recorded run is reproduced as well.
+ */
+public class ReplayTransport implements HttpTransport {
+
+    private Map<String, Deque<Exchange>> exchanges = new HashMap<>();
+    private boolean latency;
+
+    /**
+     * read a recording
+     *
+     * @param file path of the recording
+     * @param latency true if every response should be delayed by its recorded latency
+     * @throws IOException if the recording could not be read
+     */
+    public ReplayTransport(Path file, boolean latency) throws IOException {
+        this.latency = latency;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            while (true) {
+                String key;
+                try {
+                    key = in.readUTF();
+                } catch (EOFException e) {
+                    // end of the recording
+                    break;
+                }
+                Exchange exchange = new Exchange();
+                exchange.latency = in.readLong();
+                exchange.statusCode = in.readInt();
+                exchange.charset = Charset.forName(in.readUTF());
+                exchange.body = new byte[in.readInt()];
+                in.readFully(exchange.body);
+                exchanges.computeIfAbsent(key, k -> new ArrayDeque<>()).add(exchange);
+            }
+        }
+    }
+
+    @Override
+    public ResponseBody execute(HttpRequestBase request) throws IOException {
+        Exchange exchange = next(RecordingTransport.getKey(request));
+        if (exchange == null) {
+            throw new IOException("No recorded response for " + request.getMethod() + " " + RecordingTransport.getUrlWithoutApiKey(request));
+        }
+        if (latency && exchange.latency > 0) {
+            try {
+                Thread.sleep(exchange.latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while replaying the latency of a response.");
+            }
+        }
+        ResponseBody response = ResponseBody.of(exchange.body, exchange.charset);
+        if (exchange.statusCode != RecordingTransport.STATUS_OK) {
+            throw HttpStatusException.of(exchange.statusCode, response);
+        }
+        return response;
+    }
+
+    private synchronized Exchange next(String key) {
+        Deque<Exchange> recorded = exchanges.get(key);
+        if (recorded == null) {
+            return null;
+        }
+        return recorded.size() > 1 ? recorded.poll() : recorded.peek();
+    }
+
+    private static class Exchange {
+        private long latency;
+        private int statusCode;
+        private Charset charset;
+        private byte[] body;
+    }
+
+}
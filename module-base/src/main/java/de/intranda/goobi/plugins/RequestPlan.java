@@ -0,0 +1,132 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+
+package de.intranda.goobi.plugins;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plan of the requests that a dry run would have sent, i.e. the number of endpoints every command was expanded to, the number of requests
+ * including all pages, and the estimated size of the requests. Commands are run one after another, hence all requests belong to the command that
+ * was started last.
+ */
+public class RequestPlan {
+
+    private List<Entry> entries = new ArrayList<>();
+
+    /**
+     * start the plan of the next command
+     *
+     * @param description method and raw endpoint of the command
+     * @param endpoints number of endpoints the raw endpoint was expanded to
+     */
+    public synchronized void startCommand(String description, int endpoints) {
+        entries.add(new Entry(description, endpoints));
+    }
+
+    /**
+     * add a request of the current command
+     *
+     * @param bytes estimated size of the request
+     */
+    public synchronized void addRequest(long bytes) {
+        Entry entry = getCurrentEntry();
+        entry.requests++;
+        entry.requestBytes += bytes;
+    }
+
+    /**
+     * add a response of the current command that was replayed from the archive
+     *
+     * @param bytes size of the response
+     */
+    public synchronized void addReplayedResponse(long bytes) {
+        Entry entry = getCurrentEntry();
+        entry.replayedResponses++;
+        entry.responseBytes += bytes;
+    }
+
+    /**
+     * describe the plan in one line per command and a line with the totals
+     *
+     * @return list of lines
+     */
+    public synchronized List<String> getSummary() {
+        List<String> lines = new ArrayList<>();
+        long requests = 0;
+        long requestBytes = 0;
+        for (Entry entry : entries) {
+            lines.add(entry.description + ": expanded to " + entry.endpoints + " endpoints, " + entry.requests + " requests with about "
+                    + entry.requestBytes + " bytes, " + entry.replayedResponses + " responses replayed with " + entry.responseBytes + " bytes.");
+            requests += entry.requests;
+            requestBytes += entry.requestBytes;
+        }
+        lines.add("Dry run of " + entries.size() + " commands: " + requests + " requests with about " + requestBytes + " bytes.");
+        return lines;
+    }
+
+    /**
+     * estimate the size of a request as sent by HTTP/1.1, without compression
+     *
+     * @param method REST method
+     * @param url request url
+     * @param headers all headers of the request
+     * @param body request body, may be null
+     * @return estimated number of bytes
+     */
+    public static long estimateBytes(String method, String url, Map<String, String> headers, String body) {
+        // request line, e.g. GET /bibs HTTP/1.1
+        long bytes = method.length() + 1L + url.getBytes(StandardCharsets.UTF_8).length + " HTTP/1.1\r\n".length();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            bytes += header.getKey().length() + ": ".length() + header.getValue().getBytes(StandardCharsets.UTF_8).length + "\r\n".length();
+        }
+        bytes += "\r\n".length();
+        if (body != null) {
+            bytes += body.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return bytes;
+    }
+
+    private Entry getCurrentEntry() {
+        if (entries.isEmpty()) {
+            // requests outside of any command, should not happen
+            entries.add(new Entry("unknown command", 0));
+        }
+        return entries.get(entries.size() - 1);
+    }
+
+    private static class Entry {
+        private String description;
+        private int endpoints;
+        private long requests;
+        private long requestBytes;
+        private long replayedResponses;
+        private long responseBytes;
+
+        private Entry(String description, int endpoints) {
+            this.description = description;
+            this.endpoints = endpoints;
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Writes responses to files on a background thread, so that requests need not wait for the disk. If the queue of pending responses is full, the
+ * requesting thread waits until there is space again, which limits the memory held by pending responses while keeping their order.
+ *
+ * Every response in an archive of the mode append is a record of its own, which starts with a line holding its length in bytes and ends with a
+ * line break. Hence the responses can be split again even if they contain line breaks themselves, e.g. pretty-printed JSON or XML.
+ */
+@Log4j2
+public class ResponseArchive {
+
+    public static final String MODE_OVERWRITE = "overwrite";
+    public static final String MODE_ENDPOINT = "endpoint";
+    public static final String MODE_APPEND = "append";
+
+    public static final String COMPRESSION_NONE = "none";
+    public static final String COMPRESSION_GZIP = "gzip";
+
+    private static final int DEFAULT_QUEUE_SIZE = 64;
+    static final byte RECORD_SEPARATOR = '\n';
+
+    private int queueSize;
+    private ThreadPoolExecutor writer;
+
+    // number of responses already archived per configured path, used to create file names per endpoint
+    private Map<Path, Integer> endpointCounters = new HashMap<>();
+    // files of mode append that were already started during this run
+    private Set<Path> startedFiles = new HashSet<>();
+    private AtomicInteger failures = new AtomicInteger();
+
+    public ResponseArchive() {
+        this(DEFAULT_QUEUE_SIZE);
+    }
+
+    public ResponseArchive(int queueSize) {
+        this.queueSize = queueSize > 0 ? queueSize : DEFAULT_QUEUE_SIZE;
+    }
+
+    /**
+     * archive a response
+     *
+     * @param configuredPath path configured via @filename with all variables replaced
+     * @param mode overwrite | endpoint | append
+     * @param compression none | gzip
+     * @param data content of the response
+     */
+    public void store(Path configuredPath, String mode, String compression, ResponseBody data) {
+        boolean gzip = COMPRESSION_GZIP.equals(compression);
+        Path path = configuredPath;
+        boolean append = false;
+        switch (mode) {
+            case MODE_ENDPOINT:
+                int index = endpointCounters.merge(configuredPath, 1, Integer::sum);
+                path = getEndpointPath(configuredPath, index);
+                break;
+            case MODE_APPEND:
+                // the first response of a run replaces the old archive, all following ones are appended
+                append = !startedFiles.add(configuredPath);
+                break;
+            default:
+                // overwrite
+        }
+        if (gzip && !path.getFileName().toString().endsWith(".gz")) {
+            path = path.resolveSibling(path.getFileName() + ".gz");
+        }
+
+        Path target = path;
+        boolean appendToTarget = append;
+        // responses in an append-only archive are written as records, which can be split again
+        boolean record = MODE_APPEND.equals(mode);
+        getWriter().execute(() -> write(target, data, gzip, appendToTarget, record));
+    }
+
+    /**
+     * wait until all pending responses are written
+     *
+     * @return true if all responses were written successfully, false otherwise
+     */
+    public boolean close() {
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                while (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                    log.debug("waiting for " + writer.getQueue().size() + " responses to be archived");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("Interrupted while archiving responses.");
+                return false;
+            }
+        }
+        return failures.get() == 0;
+    }
+
+    private void write(Path path, ResponseBody data, boolean gzip, boolean append, boolean record) {
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            StandardOpenOption mode = append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)) {
+                if (gzip) {
+                    // every appended gzip stream is a member of its own, and concatenated members form a valid gzip file
+                    // closing the stream releases its Deflater at once, and closes the channel as well
+                    try (GZIPOutputStream out = new GZIPOutputStream(Channels.newOutputStream(channel))) {
+                        if (record) {
+                            out.write(getRecordHeader(data));
+                        }
+                        data.writeTo(out);
+                        if (record) {
+                            out.write(RECORD_SEPARATOR);
+                        }
+                    }
+                } else {
+                    if (record) {
+                        writeFully(channel, ByteBuffer.wrap(getRecordHeader(data)));
+                    }
+                    // the captured bytes are handed to the channel as they are, without any further copy
+                    data.writeTo(channel);
+                    if (record) {
+                        writeFully(channel, ByteBuffer.wrap(new byte[] { RECORD_SEPARATOR }));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            log.error("Failed to archive response to " + path, e);
+        }
+    }
+
+    private static byte[] getRecordHeader(ResponseBody data) {
+        return (data.getLength() + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private ThreadPoolExecutor getWriter() {
+        if (writer == null) {
+            writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), r -> {
+                Thread thread = new Thread(r, "alma-api-response-archive");
+                thread.setDaemon(true);
+                return thread;
+            }, (r, executor) -> {
+                try {
+                    executor.getQueue().put(r);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failures.incrementAndGet();
+                    log.error("Interrupted while waiting to archive a response.");
+                }
+            });
+        }
+        return writer;
+    }
+
+    /**
+     * get the path for the n-th response of a path configured via @filename, e.g. response_2.json for response.json
+     */
+    static Path getEndpointPath(Path configuredPath, int index) {
+        String fileName = configuredPath.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String numbered = dot > 0 ? fileName.substring(0, dot) + "_" + index + fileName.substring(dot) : fileName + "_" + index;
+        return configuredPath.resolveSibling(numbered);
+    }
+
+}
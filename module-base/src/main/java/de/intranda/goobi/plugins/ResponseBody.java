@@ -0,0 +1,254 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.apache.http.entity.ContentType;
+
+import lombok.Getter;
+
+/**
+ * Body of a response, read only once into a byte buffer. The same buffer is used for parsing and for archiving, without decoding it into a String
+ * and encoding it again.
+ */
+public class ResponseBody {
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    // upper limit for a buffer allocated according to the Content-Length header, the buffer will grow if the response is actually larger
+    private static final int MAX_INITIAL_BUFFER_SIZE = 16 * 1024 * 1024;
+    // typical ratio of JSON or XML that is compressed with gzip, used to estimate the size of the decoded content
+    private static final int EXPECTED_COMPRESSION_RATIO = 5;
+
+    // content codings that can be decoded, used for the header Accept-Encoding
+    public static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
+    private byte[] buffer;
+    @Getter
+    private int length;
+    @Getter
+    private Charset charset;
+    // number of bytes that were transferred, which is smaller than the length if the content was compressed
+    @Getter
+    private long wireLength;
+
+    private ResponseBody(byte[] buffer, int length, Charset charset) {
+        this.buffer = buffer;
+        this.length = length;
+        this.charset = charset;
+        this.wireLength = length;
+    }
+
+    /**
+     * read the content of an HttpEntity, and decode it while reading if it was compressed with gzip or deflate
+     *
+     * @param entity HttpEntity, may be null
+     * @return ResponseBody
+     * @throws IOException
+     */
+    public static ResponseBody read(HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return of(new byte[0], StandardCharsets.UTF_8);
+        }
+        Charset charset = getCharset(entity);
+        String encoding = getContentEncoding(entity);
+        long contentLength = entity.getContentLength();
+        if (contentLength >= 0 && !encoding.isEmpty()) {
+            contentLength *= EXPECTED_COMPRESSION_RATIO;
+        }
+        int initialSize = contentLength >= 0 ? (int) Math.min(contentLength, MAX_INITIAL_BUFFER_SIZE) : DEFAULT_BUFFER_SIZE;
+        InputStream content = entity.getContent();
+        if (content == null) {
+            return of(new byte[0], charset);
+        }
+        try (CountingInputStream wire = new CountingInputStream(content); InputStream in = decode(wire, encoding)) {
+            ResponseBody body = read(in, initialSize, charset);
+            body.wireLength = wire.count;
+            return body;
+        }
+    }
+
+    private static String getContentEncoding(HttpEntity entity) {
+        Header header = entity.getContentEncoding();
+        return header == null || header.getValue() == null ? "" : header.getValue().trim().toLowerCase();
+    }
+
+    private static InputStream decode(InputStream in, String encoding) throws IOException {
+        switch (encoding) {
+            case "":
+            case "identity":
+                return in;
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in, DEFAULT_BUFFER_SIZE);
+            case "deflate":
+                // handles both zlib wrapped and raw deflate data, since servers use both
+                return new DeflateInputStream(in);
+            default:
+                throw new IOException("Unsupported content encoding " + encoding);
+        }
+    }
+
+    /**
+     * read the content of an InputStream
+     *
+     * @param in InputStream
+     * @param initialSize expected size of the content, if the content has exactly this size then no copy is needed
+     * @param charset Charset of the content
+     * @return ResponseBody
+     * @throws IOException
+     */
+    public static ResponseBody read(InputStream in, int initialSize, Charset charset) throws IOException {
+        byte[] buffer = new byte[Math.max(initialSize, 1)];
+        int length = 0;
+        if (in != null) {
+            int n;
+            while ((n = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += n;
+                if (length == buffer.length) {
+                    // check for the end of the stream before growing the buffer, since the Content-Length is mostly correct
+                    int next = in.read();
+                    if (next == -1) {
+                        break;
+                    }
+                    byte[] larger = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, larger, 0, length);
+                    buffer = larger;
+                    buffer[length++] = (byte) next;
+                }
+            }
+        }
+        return new ResponseBody(buffer, length, charset);
+    }
+
+    public static ResponseBody of(byte[] data, Charset charset) {
+        return new ResponseBody(data, data.length, charset);
+    }
+
+    public static ResponseBody of(String value) {
+        return of(value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a new InputStream reading the content without copying it
+     */
+    public InputStream newInputStream() {
+        return new ByteArrayInputStream(buffer, 0, length);
+    }
+
+    /**
+     * write the content to a channel
+     *
+     * @param channel WritableByteChannel, e.g. a FileChannel
+     * @throws IOException
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+    }
+
+    /**
+     * write the content to a stream
+     *
+     * @param out OutputStream
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * decode the content, which should only be used for small responses or for messages
+     *
+     * @return content as String
+     */
+    public String asString() {
+        return new String(buffer, 0, length, charset);
+    }
+
+    /**
+     * InputStream that counts the bytes read from the underlying stream.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                ++count;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private static Charset getCharset(HttpEntity entity) {
+        try {
+            ContentType contentType = ContentType.get(entity);
+            if (contentType != null && contentType.getCharset() != null) {
+                return contentType.getCharset();
+            }
+        } catch (RuntimeException e) {
+            // unknown or illegal charset, use the default one
+        }
+        // JSON is UTF-8 by definition, and Alma also uses UTF-8 for XML
+        return StandardCharsets.UTF_8;
+    }
+
+}
@@ -0,0 +1,50 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+
+/**
+ * Cache of GET responses. The default implementations keep the responses in memory or in a folder that can be shared by several nodes, and other
+ * backends can be plugged in by implementing this interface with a public constructor that accepts the HierarchicalConfiguration of the
+ * response-cache block.
+ */
+public interface ResponseCache {
+
+    /**
+     * get a cached response
+     *
+     * @param key fingerprint of the request
+     * @return the cached response, or null if there is none or it expired
+     * @throws IOException
+     */
+    ResponseBody get(String key) throws IOException;
+
+    /**
+     * cache a response
+     *
+     * @param key fingerprint of the request
+     * @param response the response
+     * @param ttl time to live in milliseconds
+     * @throws IOException
+     */
+    void put(String key, ResponseBody response, long ttl) throws IOException;
+
+}
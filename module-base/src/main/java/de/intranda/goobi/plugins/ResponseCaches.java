@@ -0,0 +1,93 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Creates the response cache configured in a response-cache block. Caches are shared by all executions of the step, so that the same
+ * configuration always results in the same cache.
+ */
+public class ResponseCaches {
+
+    private static final Map<String, ResponseCache> CACHES = new HashMap<>();
+
+    private ResponseCaches() {
+        // hide the implicit one
+    }
+
+    /**
+     * get the response cache of a configuration
+     *
+     * @param config HierarchicalConfiguration of the response-cache block
+     * @return ResponseCache
+     * @throws IOException if the folder of a file cache could not be prepared
+     * @throws IllegalArgumentException if the configuration is invalid
+     */
+    public static synchronized ResponseCache get(HierarchicalConfiguration config) throws IOException {
+        String type = config.getString("type", "memory");
+        switch (type) {
+            case "memory":
+                int maxEntries = config.getInt("max-entries", 1000);
+                String memoryKey = type + " " + maxEntries;
+                if (!CACHES.containsKey(memoryKey)) {
+                    CACHES.put(memoryKey, new MemoryResponseCache(maxEntries));
+                }
+                return CACHES.get(memoryKey);
+
+            case "file":
+                String folder = config.getString("folder", "");
+                if (StringUtils.isBlank(folder)) {
+                    throw new IllegalArgumentException("A response cache of type file needs a folder.");
+                }
+                int indexSize = config.getInt("index-size", 65536);
+                String fileKey = type + " " + folder + " " + indexSize;
+                if (!CACHES.containsKey(fileKey)) {
+                    CACHES.put(fileKey, new FileResponseCache(Paths.get(folder), indexSize));
+                }
+                return CACHES.get(fileKey);
+
+            default:
+                // any other type is the name of a class implementing ResponseCache
+                if (!CACHES.containsKey(type)) {
+                    CACHES.put(type, createCache(type, config));
+                }
+                return CACHES.get(type);
+        }
+    }
+
+    private static ResponseCache createCache(String className, HierarchicalConfiguration config) {
+        try {
+            Class<? extends ResponseCache> cacheClass = Class.forName(className).asSubclass(ResponseCache.class);
+            return cacheClass.getConstructor(HierarchicalConfiguration.class).newInstance(config);
+        } catch (ClassNotFoundException | ClassCastException | NoSuchMethodException | InstantiationException | IllegalAccessException
+                | InvocationTargetException e) {
+            throw new IllegalArgumentException("Unknown response cache type: " + className, e);
+        }
+    }
+
+}
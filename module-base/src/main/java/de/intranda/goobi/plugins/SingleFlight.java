@@ -0,0 +1,160 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Merges identical calls that run at the same time, e.g. GET requests for the same resource sent by several processes. The first caller of a key
+ * runs the call, and all callers that arrive while it is running wait for its result instead of running the call again. The result is shared by
+ * all of them, hence it must not be modified.
+ *
+ * A failure of the running call is only shared if it concerns the call itself, e.g. an HTTP error. If the running call failed for a reason of
+ * its own caller, e.g. because it was aborted or its caller's deadline expired, every waiting caller tries once more, which may make it the
+ * first caller of a new call.
+ */
+public class SingleFlight<T> {
+
+    private final ConcurrentHashMap<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+    // true for the failures of a running call that are shared with the waiting callers
+    private final Predicate<Throwable> sharedFailure;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong coalescedCalls = new AtomicLong();
+    private final AtomicLong retriedCalls = new AtomicLong();
+
+    /**
+     * create a SingleFlight that shares all failures
+     */
+    public SingleFlight() {
+        this(failure -> true);
+    }
+
+    /**
+     * @param sharedFailure true for the failures of a running call that are shared with the waiting callers, the others try again
+     */
+    public SingleFlight(Predicate<Throwable> sharedFailure) {
+        this.sharedFailure = sharedFailure;
+    }
+
+    /**
+     * a call that may fail with an IOException
+     */
+    public interface Call<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * run the call, or wait for the result of an identical call that is already running
+     *
+     * @param key key that is equal for identical calls
+     * @param maxWaitMillis maximum time in milliseconds to wait for an identical call, Long.MAX_VALUE to wait until it is finished
+     * @param call the call
+     * @return result of the call
+     * @throws IOException if the call failed or the result was not available in time
+     */
+    public T execute(String key, long maxWaitMillis, Call<T> call) throws IOException {
+        calls.incrementAndGet();
+        return execute(key, maxWaitMillis, call, true);
+    }
+
+    private T execute(String key, long maxWaitMillis, Call<T> call, boolean retry) throws IOException {
+        CompletableFuture<T> own = new CompletableFuture<>();
+        CompletableFuture<T> running = inFlight.putIfAbsent(key, own);
+        if (running != null) {
+            coalescedCalls.incrementAndGet();
+            try {
+                return await(running, maxWaitMillis);
+            } catch (ExecutionException e) {
+                if (retry && !sharedFailure.test(e.getCause())) {
+                    retriedCalls.incrementAndGet();
+                    return execute(key, maxWaitMillis, call, false);
+                }
+                throw unwrap(e);
+            }
+        }
+
+        try {
+            T result = call.call();
+            own.complete(result);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            // removed before the waiting callers are woken up, so that a caller that tries again does not find the failed call
+            inFlight.remove(key, own);
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            // callers that arrive from now on run the call again
+            inFlight.remove(key, own);
+        }
+    }
+
+    /**
+     * wait for the result of a running call
+     *
+     * @throws ExecutionException if the running call failed
+     */
+    private T await(CompletableFuture<T> running, long maxWaitMillis) throws IOException, ExecutionException {
+        try {
+            return maxWaitMillis == Long.MAX_VALUE ? running.get() : running.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an identical request.");
+        } catch (TimeoutException e) {
+            throw new IOException("Deadline exceeded while waiting for an identical request.", e);
+        }
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IOException(cause);
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getCoalescedCalls() {
+        return coalescedCalls.get();
+    }
+
+    public long getRetriedCalls() {
+        return retriedCalls.get();
+    }
+
+    public String getMetrics() {
+        return "calls=" + calls.get() + ", coalesced=" + coalescedCalls.get() + ", retried=" + retriedCalls.get();
+    }
+
+}
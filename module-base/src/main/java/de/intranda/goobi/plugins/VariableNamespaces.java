@@ -0,0 +1,70 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class VariableNamespaces {
+    // pattern that matches the namespace of every Goobi variable, e.g. meta in {meta.CatalogIDDigital} or processid in {processid} // NOSONAR
+    private static final Pattern GOOBI_VARIABLE_PATTERN = Pattern.compile("[\\{\\(]([a-zA-Z][\\w-]*)[\\.\\}\\)]");
+    // namespaces of Goobi variables that can only be replaced using the metadata file
+    private static final Set<String> METADATA_NAMESPACES = Set.of("meta", "metas");
+
+    private VariableNamespaces() {
+        // hide the implicit one
+    }
+
+    /**
+     * get the namespaces of all Goobi variables used in the input string, variables of this plugin in the format {$VARIABLE} are ignored
+     *
+     * @param value string that may contain Goobi variables
+     * @return set of namespaces, e.g. meta, process or processid
+     */
+    public static Set<String> getNamespaces(String value) {
+        Set<String> namespaces = new HashSet<>();
+        if (value == null) {
+            return namespaces;
+        }
+        Matcher matcher = GOOBI_VARIABLE_PATTERN.matcher(value);
+        while (matcher.find()) {
+            namespaces.add(matcher.group(1).toLowerCase());
+        }
+        return namespaces;
+    }
+
+    /**
+     * check whether any of the input namespaces can only be replaced using the metadata file
+     *
+     * @param namespaces set of namespaces
+     * @return true if the metadata file is needed, false otherwise
+     */
+    public static boolean requiresMetadata(Set<String> namespaces) {
+        for (String namespace : namespaces) {
+            if (METADATA_NAMESPACES.contains(namespace)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,532 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import net.minidev.json.JSONValue;
+
+/**
+ * Values of the static variables, keyed by their wrapped names {$name}. Variables that only hold plain values, e.g. lists of IDs, are stored as a
+ * compact string array. Variables that hold JSON nodes keep the nodes, so that they can still be used as records of metadata groups. The string
+ * views of a variable are created once and shared by all lookups, since the same variables are expanded for every endpoint and request body.
+ *
+ * Very large lists of plain values can be stored in an {@link IdDictionary} instead. Their strings are then created on demand whenever a value is
+ * read, which saves most of the heap at the cost of some allocations per lookup.
+ *
+ * Variables that are larger than the spill threshold of an execution are written to temporary files as JSON, and they are parsed again from the
+ * files whenever they are used. Hence they only take heap between their uses, while a single use still holds all of their values. The files are
+ * deleted when a variable is replaced or when the execution that spilled them is released at the end of its run.
+ *
+ * Listeners of an execution can subscribe to a variable to receive every new value that the execution puts, e.g. to save it while further
+ * requests are running. The value stays in the store afterwards, since later commands may still use it.
+ *
+ * The store is shared by all executions, which may run concurrently, hence all of its methods are thread-safe.
+ */
+@Log4j2
+public class VariableStore {
+
+    private final Map<String, Variable> variables = new ConcurrentHashMap<>();
+
+    public boolean contains(String key) {
+        return variables.containsKey(key);
+    }
+
+    /**
+     * get a variable
+     *
+     * @param key wrapped name of the variable
+     * @return the variable, or null if it is unknown
+     */
+    public Variable get(String key) {
+        return variables.get(key);
+    }
+
+    /**
+     * create or replace a variable, which is never encoded or spilled
+     *
+     * @param key wrapped name of the variable
+     * @param values all values of the variable, must not be empty
+     * @return the previous variable, or null if there was none
+     */
+    public Variable put(String key, List<Object> values) {
+        return put(key, values, null);
+    }
+
+    /**
+     * create or replace a variable on behalf of an execution, whose settings decide if the variable is encoded or spilled, which owns the
+     * temporary file if the variable is spilled, and whose listeners are notified
+     *
+     * @param key wrapped name of the variable
+     * @param values all values of the variable, must not be empty
+     * @param execution execution that creates the variable, may be null
+     * @return the previous variable, or null if there was none
+     */
+    public Variable put(String key, List<Object> values, Execution execution) {
+        Variable variable = Variable.of(values, execution == null ? 0 : execution.getDictionaryThreshold());
+        // encoded variables are compact already
+        if (execution != null && execution.getSpillThreshold() > 0 && !variable.isEncoded()) {
+            variable = spillIfOversized(key, variable, execution);
+        }
+        Variable previous = variables.put(key, variable);
+        if (previous instanceof SpilledVariable) {
+            ((SpilledVariable) previous).delete();
+        }
+        if (execution != null) {
+            execution.variableUpdated(key, variable);
+        }
+        return previous;
+    }
+
+    /**
+     * remove the listeners of an execution and the variables it spilled, whose temporary files are deleted, the other variables are kept, as
+     * well as the listeners and spilled variables of all other executions
+     *
+     * @param execution Execution
+     */
+    public void release(Execution execution) {
+        execution.unsubscribeAll();
+        for (Entry<String, SpilledVariable> entry : execution.removeSpilled().entrySet()) {
+            // a variable that was replaced in the meantime deleted its file already
+            variables.remove(entry.getKey(), entry.getValue());
+            entry.getValue().delete();
+        }
+    }
+
+    private Variable spillIfOversized(String key, Variable variable, Execution execution) {
+        List<Object> values = variable.getValues();
+        String json = null;
+        long size = 0;
+        if (variable.isScalar()) {
+            for (Object value : values) {
+                size += 2L * ((String) value).length();
+            }
+        } else {
+            // the size of JSON nodes is only known after serializing them
+            json = JSONValue.toJSONString(values);
+            size = 2L * json.length();
+        }
+        if (size <= execution.getSpillThreshold()) {
+            return variable;
+        }
+
+        Path spillFolder = execution.getSpillFolder();
+        try {
+            if (spillFolder != null) {
+                Files.createDirectories(spillFolder);
+            }
+            Path file = spillFolder == null ? Files.createTempFile("alma-api-variable-", ".json")
+                    : Files.createTempFile(spillFolder, "alma-api-variable-", ".json");
+            Files.writeString(file, json != null ? json : JSONValue.toJSONString(values), StandardCharsets.UTF_8);
+            log.debug("Variable " + key + " with about " + size + " bytes spilled to " + file);
+            SpilledVariable spilled = new SpilledVariable(file, variable.isScalar());
+            execution.addSpilled(key, spilled);
+            return spilled;
+        } catch (IOException e) {
+            log.warn("Failed to spill variable " + key + ", it is kept in memory", e);
+            return variable;
+        }
+    }
+
+    /**
+     * A single run of the step, which uses the shared variables with its own settings. It owns its listeners and the temporary files of the
+     * variables that it spilled, so that its listeners only receive its own values, and releasing it never affects another run.
+     */
+    public static class Execution {
+
+        // estimated size in bytes from which a variable is written to a temporary file, 0 if variables are always kept in memory
+        @Getter
+        private final long spillThreshold;
+        // folder of the temporary files, null for the default temporary folder
+        @Getter
+        private final Path spillFolder;
+        // number of plain values from which a variable is stored in a dictionary, 0 if dictionaries are not used
+        @Getter
+        private final int dictionaryThreshold;
+        private final Map<String, SpilledVariable> spilled = new HashMap<>();
+        private final Map<String, List<Listener>> listeners = new HashMap<>();
+        // keys of all variables put by this execution
+        private final Set<String> keys = new HashSet<>();
+
+        public Execution(long spillThreshold, Path spillFolder, int dictionaryThreshold) {
+            this.spillThreshold = spillThreshold;
+            this.spillFolder = spillFolder;
+            this.dictionaryThreshold = dictionaryThreshold;
+        }
+
+        /**
+         * receive all values that this execution puts into a variable from now on
+         *
+         * @param key wrapped name of the variable
+         * @param listener Listener
+         */
+        public synchronized void subscribe(String key, Listener listener) {
+            listeners.computeIfAbsent(key, k -> new ArrayList<>()).add(listener);
+        }
+
+        /**
+         * remove all listeners of this execution
+         */
+        public synchronized void unsubscribeAll() {
+            listeners.clear();
+        }
+
+        /**
+         * @param key wrapped name of the variable
+         * @return true if this execution put a value into the variable
+         */
+        public synchronized boolean hasPut(String key) {
+            return keys.contains(key);
+        }
+
+        private void variableUpdated(String key, Variable variable) {
+            List<Listener> subscribed;
+            synchronized (this) {
+                keys.add(key);
+                subscribed = new ArrayList<>(listeners.getOrDefault(key, Collections.emptyList()));
+            }
+            for (Listener listener : subscribed) {
+                listener.variableUpdated(key, variable);
+            }
+        }
+
+        private synchronized void addSpilled(String key, SpilledVariable variable) {
+            SpilledVariable previous = spilled.put(key, variable);
+            if (previous != null) {
+                // the variable of this key was replaced, which deleted the previous file already
+                previous.delete();
+            }
+        }
+
+        private synchronized Map<String, SpilledVariable> removeSpilled() {
+            Map<String, SpilledVariable> removed = new HashMap<>(spilled);
+            spilled.clear();
+            return removed;
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * called after a new value was put into a variable
+         *
+         * @param key wrapped name of the variable
+         * @param variable the new variable
+         */
+        void variableUpdated(String key, Variable variable);
+    }
+
+    public static class Variable {
+
+        // values as strings, if none of the values is a JSON node and the variable is not encoded, null otherwise
+        private final String[] scalars;
+        // distinct values and the index of every value in them, if the variable is encoded, null otherwise
+        private final IdDictionary dictionary;
+        private final int[] ids;
+        // values as they were put, if at least one of them is a JSON node, null otherwise
+        private final List<Object> nodes;
+
+        // views that are created on first use, concurrent lookups may create equal views, of which one is kept
+        private volatile List<Object> values;
+        private volatile List<String> strings;
+        private volatile List<String> jsonStrings;
+        private volatile Set<String> valueSet;
+
+        private Variable(String[] scalars, IdDictionary dictionary, int[] ids, List<Object> nodes) {
+            this.scalars = scalars;
+            this.dictionary = dictionary;
+            this.ids = ids;
+            this.nodes = nodes;
+        }
+
+        static Variable of(List<Object> values) {
+            return of(values, 0);
+        }
+
+        static Variable of(List<Object> values, int dictionaryThreshold) {
+            for (Object value : values) {
+                if (!isScalar(value)) {
+                    return new Variable(null, null, null, Collections.unmodifiableList(new ArrayList<>(values)));
+                }
+            }
+
+            if (dictionaryThreshold > 0 && values.size() >= dictionaryThreshold) {
+                IdDictionary dictionary = new IdDictionary(values.size());
+                int[] ids = new int[values.size()];
+                for (int i = 0; i < ids.length; ++i) {
+                    ids[i] = dictionary.add(String.valueOf(values.get(i)));
+                }
+                dictionary.trim();
+                return new Variable(null, dictionary, ids, null);
+            }
+
+            String[] scalars = new String[values.size()];
+            for (int i = 0; i < scalars.length; ++i) {
+                scalars[i] = String.valueOf(values.get(i));
+            }
+            return new Variable(scalars, null, null, null);
+        }
+
+        private static boolean isScalar(Object value) {
+            return value instanceof String || value instanceof Number || value instanceof Boolean;
+        }
+
+        public boolean isScalar() {
+            return nodes == null;
+        }
+
+        public boolean isEncoded() {
+            return dictionary != null;
+        }
+
+        /**
+         * get the values as they are journaled or used as records of metadata groups
+         *
+         * @return unmodifiable list of all values, plain values are returned as strings
+         */
+        public List<Object> getValues() {
+            List<Object> view = values;
+            if (view == null) {
+                if (isEncoded()) {
+                    view = Collections.unmodifiableList(new EncodedList<>(dictionary, ids));
+                } else {
+                    view = isScalar() ? Collections.unmodifiableList(Arrays.asList((Object[]) scalars)) : nodes;
+                }
+                values = view;
+            }
+            return view;
+        }
+
+        /**
+         * get the values as strings, JSON arrays are flattened
+         *
+         * @param convertJson true if JSON nodes shall be rendered with {@link JSONUtils#convertJsonToString(Object)}
+         * @return unmodifiable list of all values as strings
+         */
+        public List<String> getStrings(boolean convertJson) {
+            if (convertJson && !isScalar()) {
+                List<String> view = jsonStrings;
+                if (view == null) {
+                    view = render(nodes, true);
+                    jsonStrings = view;
+                }
+                return view;
+            }
+            List<String> view = strings;
+            if (view == null) {
+                if (isScalar()) {
+                    // plain values are the same in both renderings
+                    view = Collections.unmodifiableList(isEncoded() ? new EncodedList<>(dictionary, ids) : Arrays.asList(scalars));
+                } else {
+                    view = render(nodes, false);
+                }
+                strings = view;
+            }
+            return view;
+        }
+
+        /**
+         * get the distinct values as strings, e.g. to compare them with a filter key
+         *
+         * @return unmodifiable set of all values as strings
+         */
+        public Set<String> getValueSet() {
+            Set<String> view = valueSet;
+            if (view == null) {
+                // the distinct values of an encoded variable are exactly the entries of its dictionary
+                view = Collections.unmodifiableSet(isEncoded() ? new DictionarySet(dictionary) : new HashSet<>(getStrings(false)));
+                valueSet = view;
+            }
+            return view;
+        }
+
+        static List<String> render(List<Object> nodes, boolean convertJson) {
+            List<String> results = new ArrayList<>(nodes.size());
+            for (Object obj : nodes) {
+                if (obj instanceof JSONArray) {
+                    for (Object object : (JSONArray) obj) {
+                        results.add(String.valueOf(object));
+                    }
+                } else if (obj instanceof JSONObject) {
+                    results.add(obj.toString());
+                } else if (convertJson && !isScalar(obj)) {
+                    results.add(JSONUtils.convertJsonToString(obj));
+                } else {
+                    results.add(String.valueOf(obj));
+                }
+            }
+            return Collections.unmodifiableList(results);
+        }
+    }
+
+    /**
+     * variable whose values are stored in a temporary file, they are parsed again whenever they are used
+     */
+    static class SpilledVariable extends Variable {
+
+        private final Path file;
+        private final boolean scalar;
+
+        SpilledVariable(Path file, boolean scalar) {
+            super(null, null, null, null);
+            this.file = file;
+            this.scalar = scalar;
+        }
+
+        @Override
+        public boolean isScalar() {
+            return scalar;
+        }
+
+        @Override
+        public List<Object> getValues() {
+            return Collections.unmodifiableList(read());
+        }
+
+        @Override
+        public List<String> getStrings(boolean convertJson) {
+            List<Object> values = read();
+            if (!scalar) {
+                return render(values, convertJson);
+            }
+            List<String> results = new ArrayList<>(values.size());
+            for (Object value : values) {
+                results.add((String) value);
+            }
+            return Collections.unmodifiableList(results);
+        }
+
+        @Override
+        public Set<String> getValueSet() {
+            return Collections.unmodifiableSet(new HashSet<>(getStrings(false)));
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<Object> read() {
+            // parse the file as a stream, so that no copy of the whole JSON text is created
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                return (List<Object>) JSONUtils.getJSONObjectFromStream(in, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read spilled variable from " + file, e);
+            }
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Failed to delete spilled variable " + file, e);
+            }
+        }
+    }
+
+    /**
+     * list of encoded values, whose strings are created when they are read
+     */
+    private static class EncodedList<T> extends AbstractList<T> {
+
+        private final IdDictionary dictionary;
+        private final int[] ids;
+
+        EncodedList(IdDictionary dictionary, int[] ids) {
+            this.dictionary = dictionary;
+            this.ids = ids;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            return (T) dictionary.get(ids[index]);
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+    }
+
+    /**
+     * set of all entries of a dictionary
+     */
+    private static class DictionarySet extends AbstractSet<String> {
+
+        private final IdDictionary dictionary;
+
+        DictionarySet(IdDictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof String && dictionary.indexOf((String) o) >= 0;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < dictionary.size();
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return dictionary.get(next++);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return dictionary.size();
+        }
+    }
+
+}
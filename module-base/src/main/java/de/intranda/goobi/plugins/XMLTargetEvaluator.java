@@ -0,0 +1,355 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Streaming evaluator of the target paths of a command for XML responses. The response is read once with StAX, and only the values of the matched
+ * nodes are kept in memory.
+ *
+ * Supported is the following subset of XPath, where all names are compared without namespace prefixes:
+ * <ul>
+ * <li>child steps <code>/bib/mms_id</code> and descendant steps <code>//item_data/barcode</code></li>
+ * <li>the wildcard <code>*</code></li>
+ * <li>the predicates <code>[2]</code>, <code>[@attribute]</code> and <code>[@attribute='value']</code></li>
+ * <li>a final attribute step <code>/@link</code>, or <code>/text()</code> for the direct text of an element</li>
+ * </ul>
+ * The value of an element is its whole text content, trimmed.
+ */
+@Log4j2
+public class XMLTargetEvaluator {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    private XMLTargetEvaluator() {
+        // hide the implicit one
+    }
+
+    /**
+     * get the values of all targets from an XML document
+     *
+     * @param targets list of targets whose paths are XPath expressions
+     * @param in XML document
+     * @param encoding encoding of the document
+     * @return map of variable names to the matched values
+     * @throws XMLStreamException if the document is not well-formed
+     * @throws IllegalArgumentException if a path is not supported
+     */
+    public static Map<String, List<Object>> evaluate(List<Target> targets, InputStream in, String encoding) throws XMLStreamException {
+        List<Path> paths = new ArrayList<>(targets.size());
+        Map<String, List<Object>> results = new LinkedHashMap<>();
+        for (Target target : targets) {
+            paths.add(Path.compile(target.getPath()));
+            results.computeIfAbsent(target.getVariableName(), k -> new ArrayList<>());
+        }
+        if (paths.isEmpty()) {
+            return results;
+        }
+
+        Deque<Frame> stack = new ArrayDeque<>();
+        Frame document = new Frame(paths.size());
+        for (BitSet states : document.states) {
+            states.set(0);
+        }
+        stack.push(document);
+        List<Capture> activeCaptures = new ArrayList<>();
+
+        XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in, encoding);
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        Frame parent = stack.peek();
+                        Frame frame = new Frame(paths.size());
+                        for (int p = 0; p < paths.size(); ++p) {
+                            Path path = paths.get(p);
+                            if (matchElement(path, p, parent, frame, reader)) {
+                                String variable = targets.get(p).getVariableName();
+                                if (path.resultAttribute != null) {
+                                    String value = getAttribute(reader, path.resultAttribute);
+                                    if (value != null) {
+                                        results.get(variable).add(value);
+                                    }
+                                } else {
+                                    Capture capture = new Capture(variable, frame, path.directTextOnly);
+                                    activeCaptures.add(capture);
+                                    frame.captures.add(capture);
+                                }
+                            }
+                        }
+                        stack.push(frame);
+                        break;
+
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        for (Capture capture : activeCaptures) {
+                            if (!capture.directTextOnly || capture.frame == stack.peek()) {
+                                capture.text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                            }
+                        }
+                        break;
+
+                    case XMLStreamConstants.END_ELEMENT:
+                        Frame closed = stack.pop();
+                        for (Capture capture : closed.captures) {
+                            activeCaptures.remove(capture);
+                            results.get(capture.variable).add(capture.text.toString().trim());
+                        }
+                        break;
+
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return results;
+    }
+
+    /**
+     * determine which steps of a path the current element matches
+     *
+     * @return true if the element matches the whole path
+     */
+    private static boolean matchElement(Path path, int pathIndex, Frame parent, Frame frame, XMLStreamReader reader) {
+        BitSet parentStates = parent.states[pathIndex];
+        BitSet states = frame.states[pathIndex];
+        int stepCount = path.steps.size();
+        // state k means that the first k steps are matched by the parent or, for a descendant step k, by any ancestor
+        for (int k = parentStates.nextSetBit(0); k >= 0 && k < stepCount; k = parentStates.nextSetBit(k + 1)) {
+            Step step = path.steps.get(k);
+            if (step.descendant) {
+                states.set(k);
+            }
+            if (step.matches(reader) && (step.position == 0 || parent.nextPosition(pathIndex, k) == step.position)) {
+                states.set(k + 1);
+            }
+        }
+        return states.get(stepCount);
+    }
+
+    private static String getAttribute(XMLStreamReader reader, String localName) {
+        for (int i = 0; i < reader.getAttributeCount(); ++i) {
+            if (localName.equals(reader.getAttributeLocalName(i))) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // responses must not be able to read local files or other urls
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Open element with the matched states of all paths.
+     */
+    private static class Frame {
+        private final BitSet[] states;
+        private final List<Capture> captures = new ArrayList<>(0);
+        // number of children that matched a step with a position predicate, keyed by path index and step index
+        private Map<Long, Integer> positions;
+
+        private Frame(int pathCount) {
+            states = new BitSet[pathCount];
+            for (int i = 0; i < pathCount; ++i) {
+                states[i] = new BitSet();
+            }
+        }
+
+        private int nextPosition(int pathIndex, int stepIndex) {
+            if (positions == null) {
+                positions = new HashMap<>();
+            }
+            return positions.merge(((long) pathIndex << 32) | stepIndex, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Text of a matched element that is collected until the element is closed.
+     */
+    private static class Capture {
+        private final String variable;
+        private final Frame frame;
+        private final boolean directTextOnly;
+        private final StringBuilder text = new StringBuilder();
+
+        private Capture(String variable, Frame frame, boolean directTextOnly) {
+            this.variable = variable;
+            this.frame = frame;
+            this.directTextOnly = directTextOnly;
+        }
+    }
+
+    /**
+     * Compiled target path.
+     */
+    static class Path {
+        private final List<Step> steps = new ArrayList<>();
+        private String resultAttribute;
+        private boolean directTextOnly;
+
+        static Path compile(String expression) {
+            if (expression == null || expression.isBlank()) {
+                throw new IllegalArgumentException("Empty XPath expression");
+            }
+            Path path = new Path();
+            List<String> tokens = split(expression.trim());
+            boolean descendant = false;
+            for (int i = 0; i < tokens.size(); ++i) {
+                String token = tokens.get(i).trim();
+                boolean last = i == tokens.size() - 1;
+                if (token.isEmpty()) {
+                    // an empty token between two slashes means that the next step may be any descendant
+                    descendant = i > 0 || tokens.size() > 1 && tokens.get(1).isEmpty();
+                    continue;
+                }
+                if (token.startsWith("@") && last) {
+                    path.resultAttribute = stripPrefix(token.substring(1));
+                } else if ("text()".equals(token) && last) {
+                    path.directTextOnly = true;
+                } else {
+                    path.steps.add(Step.parse(token, descendant, expression));
+                }
+                descendant = false;
+            }
+            if (path.steps.isEmpty()) {
+                throw new IllegalArgumentException("XPath expression without element steps: " + expression);
+            }
+            return path;
+        }
+
+        /**
+         * split an expression at all slashes that are not within a predicate
+         */
+        private static List<String> split(String expression) {
+            List<String> tokens = new ArrayList<>();
+            int depth = 0;
+            int start = 0;
+            for (int i = 0; i < expression.length(); ++i) {
+                char c = expression.charAt(i);
+                if (c == '[') {
+                    ++depth;
+                } else if (c == ']') {
+                    --depth;
+                } else if (c == '/' && depth == 0) {
+                    tokens.add(expression.substring(start, i));
+                    start = i + 1;
+                }
+            }
+            tokens.add(expression.substring(start));
+            return tokens;
+        }
+    }
+
+    /**
+     * Single element step of a path.
+     */
+    static class Step {
+        private final boolean descendant;
+        // local name of the element, null for any element
+        private String name;
+        // position among the matching children of the same parent, 0 for any position
+        private int position;
+        private String attributeName;
+        // null if the attribute only needs to exist
+        private String attributeValue;
+
+        private Step(boolean descendant) {
+            this.descendant = descendant;
+        }
+
+        static Step parse(String token, boolean descendant, String expression) {
+            Step step = new Step(descendant);
+            int bracket = token.indexOf('[');
+            String name = bracket < 0 ? token : token.substring(0, bracket).trim();
+            step.name = "*".equals(name) ? null : stripPrefix(name);
+
+            while (bracket >= 0) {
+                int end = token.indexOf(']', bracket);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unclosed predicate in XPath expression " + expression);
+                }
+                step.parsePredicate(token.substring(bracket + 1, end).trim(), expression);
+                bracket = token.indexOf('[', end);
+            }
+            return step;
+        }
+
+        private void parsePredicate(String predicate, String expression) {
+            if (predicate.matches("\\d+")) {
+                position = Integer.parseInt(predicate);
+            } else if (predicate.startsWith("@")) {
+                int equals = predicate.indexOf('=');
+                if (equals < 0) {
+                    attributeName = stripPrefix(predicate.substring(1).trim());
+                } else {
+                    attributeName = stripPrefix(predicate.substring(1, equals).trim());
+                    String value = predicate.substring(equals + 1).trim();
+                    if (value.length() < 2 || value.charAt(0) != value.charAt(value.length() - 1) || "'\"".indexOf(value.charAt(0)) < 0) {
+                        throw new IllegalArgumentException("Attribute value must be quoted in XPath expression " + expression);
+                    }
+                    attributeValue = value.substring(1, value.length() - 1);
+                }
+            } else {
+                throw new IllegalArgumentException("Unsupported predicate [" + predicate + "] in XPath expression " + expression);
+            }
+        }
+
+        private boolean matches(XMLStreamReader reader) {
+            if (name != null && !name.equals(reader.getLocalName())) {
+                return false;
+            }
+            if (attributeName == null) {
+                return true;
+            }
+            String value = getAttribute(reader, attributeName);
+            return value != null && (attributeValue == null || attributeValue.equals(value));
+        }
+    }
+
+    private static String stripPrefix(String name) {
+        int colon = name.indexOf(':');
+        return colon < 0 ? name : name.substring(colon + 1);
+    }
+
+}
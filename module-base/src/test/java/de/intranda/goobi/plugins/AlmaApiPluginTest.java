@@ -1,6 +1,8 @@
 package de.intranda.goobi.plugins;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 
 import java.io.File;
@@ -8,6 +10,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -135,6 +138,82 @@ public class AlmaApiPluginTest {
         assertEquals("1234567890", student.getChildren().get(3).getValue());
     }
 
+    @Test
+    public void testMetadataFileWrittenIfChanged() throws Exception {
+        Path metaFile = Paths.get(processDirectory.getAbsolutePath(), "meta.xml");
+        FileTime lastModified = FileTime.fromMillis(1000000000000L);
+        Files.setLastModifiedTime(metaFile, lastModified);
+
+        AlmaApiStepPlugin plugin = new AlmaApiStepPlugin();
+        plugin.setTestmode(true);
+        plugin.initialize(step, "something");
+        assertEquals(PluginReturnValue.FINISH, plugin.run());
+        assertNotEquals(lastModified, Files.getLastModifiedTime(metaFile));
+    }
+
+    @Test
+    public void testMetadataFileSkippedIfUnchanged() throws Exception {
+        Path metaFile = Paths.get(processDirectory.getAbsolutePath(), "meta.xml");
+        FileTime lastModified = FileTime.fromMillis(1000000000000L);
+        Files.setLastModifiedTime(metaFile, lastModified);
+        byte[] content = Files.readAllBytes(metaFile);
+
+        // the title is overwritten with the value it already has, and the property does not touch the metadata
+        step.setTitel("unchanged metadata");
+        AlmaApiStepPlugin plugin = new AlmaApiStepPlugin();
+        plugin.setTestmode(true);
+        plugin.initialize(step, "something");
+        assertEquals(PluginReturnValue.FINISH, plugin.run());
+        assertEquals(lastModified, Files.getLastModifiedTime(metaFile));
+        assertArrayEquals(content, Files.readAllBytes(metaFile));
+    }
+
+    @Test
+    public void testOverwriteIndexedMetadata() throws Exception {
+        step.setTitel("overwrite metadata");
+        AlmaApiStepPlugin plugin = new AlmaApiStepPlugin();
+        plugin.setTestmode(true);
+        plugin.initialize(step, "something");
+        assertEquals(PluginReturnValue.FINISH, plugin.run());
+
+        List<Element> children = getGoobiMetadata();
+        // existing metadata is overwritten in place
+        assertEquals(List.of("Bachelorarbeit"), getValues(children, "ThesisType"));
+        // metadata added during the run is indexed, hence the second entry overwrites it as well
+        assertEquals(List.of("Haupttitel"), getValues(children, "TitleDocParallel"));
+        // metadata that already has the value is kept as it is
+        assertEquals(List.of("Main title"), getValues(children, "TitleDocMain"));
+        // the metadata of the group is not indexed, hence it is never overwritten
+        Element student = children.stream().filter(e -> "Student".equals(e.getAttributeValue("name"))).findFirst().orElse(null);
+        assertNotNull(student);
+        assertEquals(List.of("NACHNAME Vorname"), getValues(student.getChildren(), "Name"));
+    }
+
+    private List<Element> getGoobiMetadata() {
+        Namespace mets = Namespace.getNamespace("mets", "http://www.loc.gov/METS/");
+        Namespace mods = Namespace.getNamespace("mods", "http://www.loc.gov/mods/v3");
+        Namespace goobi = Namespace.getNamespace("goobi", "http://meta.goobi.org/v1.5.1/");
+        Document doc = XmlTools.readDocumentFromFile(Paths.get(processDirectory.getAbsolutePath(), "meta.xml"));
+        return doc.getRootElement()
+                .getChild("dmdSec", mets)
+                .getChild("mdWrap", mets)
+                .getChild("xmlData", mets)
+                .getChild("mods", mods)
+                .getChild("extension", mods)
+                .getChild("goobi", goobi)
+                .getChildren();
+    }
+
+    private static List<String> getValues(List<Element> metadata, String name) {
+        List<String> values = new ArrayList<>();
+        for (Element element : metadata) {
+            if (name.equals(element.getAttributeValue("name"))) {
+                values.add(element.getValue());
+            }
+        }
+        return values;
+    }
+
     @Before
     public void setUp() throws Exception {
         metadataDirectory = folder.newFolder("metadata");
@@ -0,0 +1,95 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchivedResponsesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEndpointMode() throws Exception {
+        Path configured = folder.getRoot().toPath().resolve("responses/response.json");
+        ResponseArchive archive = new ResponseArchive();
+        for (int i = 1; i <= 3; ++i) {
+            archive.store(configured, ResponseArchive.MODE_ENDPOINT, ResponseArchive.COMPRESSION_NONE, ResponseBody.of("{\"id\":" + i + "}"));
+        }
+        assertTrue(archive.close());
+
+        ArchivedResponses responses = new ArchivedResponses();
+        for (int i = 1; i <= 3; ++i) {
+            assertEquals("{\"id\":" + i + "}", responses.next(configured, ResponseArchive.MODE_ENDPOINT, ResponseArchive.COMPRESSION_NONE).asString());
+        }
+        assertNull(responses.next(configured, ResponseArchive.MODE_ENDPOINT, ResponseArchive.COMPRESSION_NONE));
+    }
+
+    @Test
+    public void testAppendModeWithGzip() throws Exception {
+        Path configured = folder.getRoot().toPath().resolve("archive.json");
+        ResponseArchive archive = new ResponseArchive();
+        archive.store(configured, ResponseArchive.MODE_APPEND, ResponseArchive.COMPRESSION_GZIP, ResponseBody.of("first"));
+        archive.store(configured, ResponseArchive.MODE_APPEND, ResponseArchive.COMPRESSION_GZIP, ResponseBody.of("second"));
+        assertTrue(archive.close());
+
+        ArchivedResponses responses = new ArchivedResponses();
+        assertEquals("first", responses.next(configured, ResponseArchive.MODE_APPEND, ResponseArchive.COMPRESSION_GZIP).asString());
+        assertEquals("second", responses.next(configured, ResponseArchive.MODE_APPEND, ResponseArchive.COMPRESSION_GZIP).asString());
+        assertNull(responses.next(configured, ResponseArchive.MODE_APPEND, ResponseArchive.COMPRESSION_GZIP));
+    }
+
+    @Test
+    public void testOverwriteMode() throws Exception {
+        Path configured = folder.getRoot().toPath().resolve("missing.json");
+        ArchivedResponses responses = new ArchivedResponses();
+        assertNull(responses.next(configured, ResponseArchive.MODE_OVERWRITE, ResponseArchive.COMPRESSION_NONE));
+
+        ResponseArchive archive = new ResponseArchive();
+        archive.store(configured, ResponseArchive.MODE_OVERWRITE, ResponseArchive.COMPRESSION_NONE, ResponseBody.of("last"));
+        assertTrue(archive.close());
+        // the only archived response is used for every request
+        assertEquals("last", responses.next(configured, ResponseArchive.MODE_OVERWRITE, ResponseArchive.COMPRESSION_NONE).asString());
+        assertEquals("last", responses.next(configured, ResponseArchive.MODE_OVERWRITE, ResponseArchive.COMPRESSION_NONE).asString());
+    }
+
+    @Test
+    public void testAppendModeWithLineBreaks() throws Exception {
+        Path configured = folder.getRoot().toPath().resolve("archive.json");
+        String pretty = "{\n  \"id\": \"Ä1\",\n  \"items\": [\n    1,\n    2\n  ]\n}";
+        ResponseArchive archive = new ResponseArchive();
+        archive.store(configured, ResponseArchive.MODE_APPEND, ResponseArchive.COMPRESSION_NONE, ResponseBody.of(pretty));
+        archive.store(configured, ResponseArchive.MODE_APPEND, ResponseArchive.COMPRESSION_NONE, ResponseBody.of("\n"));
+        archive.store(configured, ResponseArchive.MODE_APPEND, ResponseArchive.COMPRESSION_NONE, ResponseBody.of("{\"id\":2}"));
+        assertTrue(archive.close());
+
+        // pretty-printed responses are replayed as a whole, and the responses after them are not shifted
+        ArchivedResponses responses = new ArchivedResponses();
+        assertEquals(pretty, responses.next(configured, ResponseArchive.MODE_APPEND, ResponseArchive.COMPRESSION_NONE).asString());
+        assertEquals("\n", responses.next(configured, ResponseArchive.MODE_APPEND, ResponseArchive.COMPRESSION_NONE).asString());
+        assertEquals("{\"id\":2}", responses.next(configured, ResponseArchive.MODE_APPEND, ResponseArchive.COMPRESSION_NONE).asString());
+        assertNull(responses.next(configured, ResponseArchive.MODE_APPEND, ResponseArchive.COMPRESSION_NONE));
+    }
+
+    @Test
+    public void testIncompleteRecord() throws Exception {
+        Path configured = folder.getRoot().toPath().resolve("archive.json");
+        Files.write(configured, "5\nfirst\n20\n{\"id\"".getBytes(StandardCharsets.UTF_8));
+        try {
+            new ArchivedResponses().next(configured, ResponseArchive.MODE_APPEND, ResponseArchive.COMPRESSION_NONE);
+            fail("an incomplete archive must not be replayed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Incomplete record"));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private AtomicLong now = new AtomicLong();
+
+    private CircuitBreaker createBreaker() {
+        // open at 50% failures or 100% slow calls of the last 4 calls, probe once after 1000 ms
+        CircuitBreaker.Settings settings = new CircuitBreaker.Settings(50, 100, 500, 4, 4, 1000, 1);
+        return new CircuitBreaker("test", settings, now::get);
+    }
+
+    @Test
+    public void testOpensOnFailureRate() {
+        CircuitBreaker breaker = createBreaker();
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onResult(10, i == 0);
+        }
+        // only 3 calls so far, which is less than the minimum
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        breaker.onResult(10, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(1, breaker.getRejectedCalls());
+    }
+
+    @Test
+    public void testOpensOnSlowCalls() {
+        CircuitBreaker breaker = createBreaker();
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onResult(800, false);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenProbing() {
+        CircuitBreaker breaker = createBreaker();
+        for (int i = 0; i < 4; ++i) {
+            breaker.tryAcquire();
+            breaker.onResult(10, true);
+        }
+        assertFalse(breaker.tryAcquire());
+
+        // a failed probe opens the breaker again
+        now.addAndGet(1000);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // only one probe at a time
+        assertFalse(breaker.tryAcquire());
+        breaker.onResult(10, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // a successful probe closes it
+        now.addAndGet(1000);
+        assertTrue(breaker.tryAcquire());
+        breaker.onResult(10, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+}
@@ -0,0 +1,84 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CommandJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResume() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("journal/alma.journal");
+        CommandJournal journal = CommandJournal.open(path, "abc");
+        journal.endpointCompleted(0, "/bibs/1", Collections.singletonMap("mms", Arrays.asList("1")));
+        journal.commandCompleted(0);
+        journal.endpointCompleted(1, "/items/1", Collections.singletonMap("barcode", Arrays.asList("B1", "B2")));
+        journal.close(false);
+
+        CommandJournal resumed = CommandJournal.open(path, "abc");
+        assertTrue(resumed.isCommandCompleted(0));
+        assertFalse(resumed.isCommandCompleted(1));
+        assertTrue(resumed.isEndpointCompleted(1, "/items/1"));
+        assertFalse(resumed.isEndpointCompleted(1, "/items/2"));
+        Map<String, List<Object>> variables = resumed.getRestoredVariables();
+        assertEquals(Arrays.asList("1"), variables.get("mms"));
+        assertEquals(Arrays.asList("B1", "B2"), variables.get("barcode"));
+        resumed.close(true);
+        assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void testFingerprintMismatch() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("alma.journal");
+        CommandJournal journal = CommandJournal.open(path, "abc");
+        journal.commandCompleted(0);
+        journal.close(false);
+
+        // a changed configuration starts from scratch
+        CommandJournal changed = CommandJournal.open(path, "def");
+        assertFalse(changed.isCommandCompleted(0));
+        assertTrue(changed.getRestoredVariables().isEmpty());
+        changed.close(false);
+        assertEquals(1, Files.readAllLines(path, StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void testTornLastLine() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("alma.journal");
+        CommandJournal journal = CommandJournal.open(path, "abc");
+        journal.endpointCompleted(0, "/bibs/1", Collections.singletonMap("mms", Arrays.asList("1")));
+        journal.close(false);
+        // the previous run was killed while writing an entry
+        Files.write(path, "{\"command\":0,\"endpoint\":\"/bi".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        CommandJournal resumed = CommandJournal.open(path, "abc");
+        assertTrue(resumed.isEndpointCompleted(0, "/bibs/1"));
+        resumed.endpointCompleted(0, "/bibs/2", Collections.singletonMap("mms", Arrays.asList("2")));
+        resumed.commandCompleted(0);
+        resumed.close(false);
+
+        // the incomplete entry was cut off, hence the entries appended after it are replayed as well
+        CommandJournal again = CommandJournal.open(path, "abc");
+        assertTrue(again.isEndpointCompleted(0, "/bibs/2"));
+        assertTrue(again.isCommandCompleted(0));
+        assertEquals(Arrays.asList("2"), again.getRestoredVariables().get("mms"));
+        again.close(false);
+        assertEquals(4, Files.readAllLines(path, StandardCharsets.UTF_8).size());
+    }
+}
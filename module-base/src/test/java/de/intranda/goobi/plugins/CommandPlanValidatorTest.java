@@ -0,0 +1,101 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CommandPlanValidatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testValidPlan() throws Exception {
+        CommandPlanValidator validator = validate("<variable name=\"MMS_ID\" value=\"99724\" />"
+                + "<command method=\"get\" endpoint=\"/bibs/{mms_id}/holdings\"><mms_id>{$MMS_ID}</mms_id>"
+                + "<target var=\"HOLDING_ID\" path=\"$.holding[*].holding_id\" /><target var=\"UNUSED\" path=\"$.total\" /></command>"
+                + "<command method=\"get\" accept=\"xml\" endpoint=\"/bibs/{mms_id}/holdings/{holding_id}\">"
+                + "<mms_id>{$MMS_ID}</mms_id><holding_id>{$HOLDING_ID}</holding_id><target var=\"CALL_NO\" path=\"//call_number\" /></command>"
+                + "<save type=\"property\" name=\"CallNumber\" value=\"{$CALL_NO}\" />");
+        assertTrue(validator.getErrors().toString(), validator.isValid());
+        assertEquals(List.of("Command 1 (get /bibs/{mms_id}/holdings) creates {$UNUSED}, which is never used."), validator.getWarnings());
+    }
+
+    @Test
+    public void testVariablesUsedTooEarly() throws Exception {
+        CommandPlanValidator validator = validate("<command method=\"get\" endpoint=\"/items/{id}\"><id>{$ITEM_ID}</id>"
+                + "<target var=\"ITEM_ID\" path=\"$.id\" /></command>"
+                + "<command method=\"post\" endpoint=\"/loans\"><body value=\"{$USER_ID}\" /><target var=\"USER_ID\" path=\"$.user\" /></command>"
+                + "<command method=\"get\" endpoint=\"/users\"><filter key=\"$.id\" value=\"$USER_ID\" />"
+                + "<target var=\"USER_ID\" path=\"$.id\" /></command>"
+                + "<command method=\"get\" endpoint=\"/loans/{loan_id}\"><target var=\"LOAN\" path=\"$.loan\" /></command>"
+                + "<save type=\"property\" name=\"Loan\" value=\"{$LOANS}\" />");
+        assertEquals(List.of("Command 1 (get /items/{id}) uses {$ITEM_ID}, which is created by the command itself.",
+                "Command 2 (post /loans) uses {$USER_ID}, which is created by the command itself.",
+                "Command 4 (get /loans/{loan_id}) has no sub-tag <loan_id> for the placeholder {loan_id}.",
+                "The save entry Loan uses the undefined variable {$LOANS}."), validator.getErrors());
+
+        validator = validate("<command method=\"get\" endpoint=\"/users/{id}\"><id>{$USER_ID}</id></command>"
+                + "<command method=\"get\" endpoint=\"/users\"><target var=\"USER_ID\" path=\"$.id\" /></command>");
+        assertEquals(List.of("Command 1 (get /users/{id}) uses {$USER_ID}, which is created later by command 2."), validator.getErrors());
+    }
+
+    @Test
+    public void testResponseTypes() throws Exception {
+        CommandPlanValidator validator = validate("<command method=\"get\" accept=\"xml\" endpoint=\"/bibs\">"
+                + "<target var=\"MMS_ID\" path=\"$.bib[*].mms_id\" /><filter key=\"$.id\" value=\"1\" /></command>"
+                + "<command method=\"get\" endpoint=\"/bibs\"><target var=\"TITLE\" path=\"/bib/title\" /></command>"
+                + "<save type=\"property\" name=\"MmsId\" value=\"{$MMS_ID}\" /><save type=\"property\" name=\"Title\" value=\"{$TITLE}\" />");
+        assertEquals(List.of("Command 1 (get /bibs) accepts XML, but the target MMS_ID has the path $.bib[*].mms_id, which is no XPath.",
+                "Command 2 (get /bibs) accepts JSON, but the target TITLE has the XPath /bib/title."), validator.getErrors());
+        assertEquals(List.of("Command 1 (get /bibs) accepts XML, its filter is only applied to JSON responses and will be ignored."),
+                validator.getWarnings());
+    }
+
+    @Test
+    public void testConditionalVariables() throws Exception {
+        CommandPlanValidator validator = validate("<variable name=\"BARCODE\" value=\"{meta.Barcode}\" conditionField=\"{meta.Barcode}\" "
+                + "conditionType=\"any\" /><command method=\"get\" endpoint=\"/items\"><filter key=\"$.barcode\" value=\"$BARCODE\" />"
+                + "<target var=\"ITEM\" path=\"$.item\" /></command><save type=\"property\" name=\"Item\" value=\"{$ITEM}\" />");
+        // the variable is only missing if the process has no barcode
+        assertTrue(validator.getErrors().toString(), validator.isValid());
+        assertEquals(List.of("Command 1 (get /items) uses {$BARCODE}, which is only defined if the condition of its <variable> matches."),
+                validator.getWarnings());
+    }
+
+    @Test
+    public void testBodyFile() throws Exception {
+        Path body = folder.getRoot().toPath().resolve("loan.json");
+        Files.writeString(body, "{\"item\": \"{$ITEM_ID}\", \"user\": \"{$USER_ID}\"}", StandardCharsets.UTF_8);
+        CommandPlanValidator validator = validate("<variable name=\"USER_ID\" value=\"42\" />"
+                + "<command method=\"post\" endpoint=\"/loans\"><body src=\"" + body + "\" /></command>"
+                + "<command method=\"post\" endpoint=\"/requests\"><body src=\"" + body.resolveSibling("missing.json") + "\" /></command>");
+        assertEquals(List.of("Command 1 (post /loans) uses {$ITEM_ID}, which is not defined."), validator.getErrors());
+        assertEquals(List.of("Command 2 (post /requests) reads its body from " + body.resolveSibling("missing.json") + ", which does not exist."),
+                validator.getWarnings());
+    }
+
+    private static CommandPlanValidator validate(String content) throws Exception {
+        XMLConfiguration xmlConfig = new XMLConfiguration();
+        xmlConfig.setDelimiterParsingDisabled(true);
+        xmlConfig.load(new StringReader("<config>" + content + "</config>"));
+        xmlConfig.setExpressionEngine(new XPathExpressionEngine());
+
+        List<HierarchicalConfiguration> variableConfigs = xmlConfig.configurationsAt("/variable");
+        List<HierarchicalConfiguration> commandConfigs = xmlConfig.configurationsAt("/command");
+        List<HierarchicalConfiguration> saveConfigs = xmlConfig.configurationsAt("/save");
+        return CommandPlanValidator.validate(variableConfigs, commandConfigs, saveConfigs);
+    }
+}
@@ -0,0 +1,68 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ugh.dl.Prefs;
+
+public class EntryToSaveTemplateTest {
+
+    private static Prefs prefs;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        String resourcesFolder = "src/test/resources/";
+        if (!Files.exists(Paths.get(resourcesFolder))) {
+            resourcesFolder = "target/test-classes/";
+        }
+        prefs = new Prefs();
+        prefs.loadPrefs(resourcesFolder + "ruleset.xml");
+    }
+
+    @Test
+    public void testResolveMetadataType() {
+        EntryToSaveTemplate entry = new EntryToSaveTemplate("metadata", "ThesisType", "{$TYPE}", "first", true, new LinkedHashMap<>());
+        entry.resolveTypes(prefs);
+        assertSame(prefs.getMetadataTypeByName("ThesisType"), entry.getMetadataType());
+        assertNull(entry.getMetadataGroupType());
+
+        EntryToSaveTemplate unknown = new EntryToSaveTemplate("metadata", "Unknown", "{$TYPE}", "first", true, new LinkedHashMap<>());
+        unknown.resolveTypes(prefs);
+        assertNull(unknown.getMetadataType());
+    }
+
+    @Test
+    public void testResolveGroupTypes() {
+        Map<String, String> groupMetadata = new LinkedHashMap<>();
+        groupMetadata.put("StudentId", "matricle");
+        groupMetadata.put("Name", "fullname");
+        EntryToSaveTemplate entry = new EntryToSaveTemplate("group", "Student", "{$STUDENT}", "each", true, groupMetadata);
+        entry.resolveTypes(prefs);
+
+        assertSame(prefs.getMetadataGroupTypeByName("Student"), entry.getMetadataGroupType());
+        // the configured order of the entries is kept
+        assertEquals(List.of("StudentId", "Name"), List.copyOf(entry.getGroupMetadataTypes().keySet()));
+        assertSame(prefs.getMetadataTypeByName("StudentId"), entry.getGroupMetadataTypes().get("StudentId"));
+        assertSame(prefs.getMetadataTypeByName("Name"), entry.getGroupMetadataTypes().get("Name"));
+        assertNull(entry.getMetadataType());
+    }
+
+    @Test
+    public void testPropertyIsNotResolved() {
+        EntryToSaveTemplate entry = new EntryToSaveTemplate("property", "DraftID", "{$DRAFT_ID}", "first", true, new LinkedHashMap<>());
+        entry.resolveTypes(prefs);
+        assertNull(entry.getMetadataType());
+        assertNull(entry.getMetadataGroupType());
+        assertNull(entry.getGroupMetadataTypes());
+    }
+}
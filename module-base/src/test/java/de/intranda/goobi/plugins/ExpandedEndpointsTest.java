@@ -0,0 +1,24 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class ExpandedEndpointsTest {
+
+    @Test
+    public void testSeveralVariables() {
+        List<String> endpoints = new ExpandedEndpoints(List.of("/bibs/{$mms}/holdings/{$holding}"), "{$mms}", List.of("1", "2"));
+        endpoints = new ExpandedEndpoints(endpoints, "{$holding}", List.of("a", "b", "c"));
+
+        assertEquals(List.of("/bibs/1/holdings/a", "/bibs/1/holdings/b", "/bibs/1/holdings/c", "/bibs/2/holdings/a", "/bibs/2/holdings/b",
+                "/bibs/2/holdings/c"), endpoints);
+    }
+
+    @Test
+    public void testEmptyVariable() {
+        assertEquals(0, new ExpandedEndpoints(List.of("/bibs/{$mms}"), "{$mms}", List.of()).size());
+    }
+}
@@ -0,0 +1,98 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class HedgingPolicyTest {
+
+    /**
+     * attempt that sleeps for a given latency, like a slow backend
+     */
+    private static HedgingPolicy.Attempt<String> attempt(String result, long latency) {
+        return new HedgingPolicy.Attempt<String>() {
+            @Override
+            public String call() throws Exception {
+                Thread.sleep(latency);
+                return result;
+            }
+
+            @Override
+            public void abort() {
+                // the sleeping thread is interrupted by the policy
+            }
+        };
+    }
+
+    /**
+     * attempt that only responds after it was aborted, like a backend that hangs
+     */
+    private static class HangingAttempt implements HedgingPolicy.Attempt<String> {
+        private final CountDownLatch aborted = new CountDownLatch(1);
+
+        @Override
+        public String call() throws Exception {
+            aborted.await();
+            return "primary";
+        }
+
+        @Override
+        public void abort() {
+            aborted.countDown();
+        }
+    }
+
+    /**
+     * create a policy that knows enough latencies of 1 ms, so that every request is hedged after 1 ms
+     */
+    private static HedgingPolicy createPolicy(int budget) {
+        HedgingPolicy policy = new HedgingPolicy("test", new HedgingPolicy.Settings(80, 20, 5, budget));
+        for (int i = 0; i < 5; ++i) {
+            policy.recordLatency(1);
+        }
+        return policy;
+    }
+
+    @Test
+    public void testSlowRequestIsHedged() throws Exception {
+        HedgingPolicy policy = createPolicy(100);
+        HangingAttempt primary = new HangingAttempt();
+        AtomicInteger attempts = new AtomicInteger();
+        // the primary attempt never responds on its own, so only the hedged one can win
+        String result = policy.execute(() -> attempts.getAndIncrement() == 0 ? primary : attempt("hedge", 0));
+
+        assertEquals("hedge", result);
+        assertEquals(2, attempts.get());
+        assertEquals(1, policy.getHedgedRequests());
+        assertEquals(1, policy.getHedgeWins());
+        // the slower attempt is aborted
+        assertEquals(0, primary.aborted.getCount());
+    }
+
+    @Test
+    public void testNoHedgingWithoutBudget() throws Exception {
+        HedgingPolicy policy = createPolicy(0);
+        AtomicInteger attempts = new AtomicInteger();
+        String result = policy.execute(() -> attempts.getAndIncrement() == 0 ? attempt("primary", 20) : attempt("hedge", 0));
+
+        assertEquals("primary", result);
+        assertEquals(1, attempts.get());
+        assertEquals(0, policy.getHedgedRequests());
+        assertEquals(0, policy.getHedgeWins());
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        HedgingPolicy policy = createPolicy(10);
+        // every request is slow, but only 10% of them may be hedged
+        for (int i = 0; i < 20; ++i) {
+            assertEquals("response", policy.execute(() -> attempt("response", 20)));
+        }
+        assertEquals(20, policy.getRequests());
+        assertTrue(policy.getHedgedRequests() <= 2);
+    }
+}
@@ -0,0 +1,71 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class IdDictionaryTest {
+
+    @Test
+    public void testDeduplication() {
+        IdDictionary dictionary = new IdDictionary(2);
+        assertEquals(0, dictionary.add("99123"));
+        assertEquals(1, dictionary.add("99456"));
+        assertEquals(0, dictionary.add("99123"));
+        assertEquals(2, dictionary.add(""));
+        assertEquals(3, dictionary.size());
+
+        assertEquals("99456", dictionary.get(1));
+        assertEquals("", dictionary.get(2));
+        assertEquals(1, dictionary.indexOf("99456"));
+        assertEquals(-1, dictionary.indexOf("99789"));
+    }
+
+    @Test
+    public void testGrowing() {
+        IdDictionary dictionary = new IdDictionary();
+        for (int i = 0; i < 10000; ++i) {
+            assertEquals(i, dictionary.add("id" + i));
+        }
+        dictionary.trim();
+        assertEquals(10000, dictionary.size());
+        for (int i = 0; i < 10000; ++i) {
+            assertEquals(i, dictionary.indexOf("id" + i));
+            assertEquals("id" + i, dictionary.get(i));
+        }
+        assertEquals(10000, dictionary.add("id10000"));
+    }
+
+    @Test
+    public void testEncodedVariable() {
+        List<Object> values = new ArrayList<>();
+        values.add("b");
+        values.add("a");
+        values.add("b");
+        VariableStore store = new VariableStore();
+        VariableStore.Execution execution = new VariableStore.Execution(0, null, 3);
+        store.put("{$ids}", values, execution);
+
+        VariableStore.Variable variable = store.get("{$ids}");
+        assertTrue(variable.isEncoded());
+        // order and duplicates of the values are kept
+        assertEquals(List.of("b", "a", "b"), variable.getStrings(false));
+        assertEquals(List.of("b", "a", "b"), variable.getValues());
+        assertEquals(Set.of("a", "b"), variable.getValueSet());
+        assertTrue(variable.getValueSet().contains("a"));
+        assertFalse(variable.getValueSet().contains("c"));
+
+        store.put("{$few}", List.of("a", "b"), execution);
+        assertFalse(store.get("{$few}").isEncoded());
+
+        // the threshold of one execution does not apply to another one
+        store.put("{$other}", values, new VariableStore.Execution(0, null, 0));
+        assertFalse(store.get("{$other}").isEncoded());
+    }
+}
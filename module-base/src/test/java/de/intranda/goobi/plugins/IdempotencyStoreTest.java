@@ -0,0 +1,78 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IdempotencyStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFingerprintIgnoresParameterOrder() {
+        Map<String, String> first = new LinkedHashMap<>();
+        first.put("op", "scan");
+        first.put("library", "MAIN");
+        Map<String, String> second = new LinkedHashMap<>();
+        second.put("library", "MAIN");
+        second.put("op", "scan");
+
+        String fingerprint = IdempotencyStore.getFingerprint("POST", "/items/1", first, "");
+        assertEquals(fingerprint, IdempotencyStore.getFingerprint("post", "/items/1", second, ""));
+        assertNotEquals(fingerprint, IdempotencyStore.getFingerprint("post", "/items/2", second, ""));
+        assertNotEquals(fingerprint, IdempotencyStore.getFingerprint("post", "/items/1", second, "{}"));
+    }
+
+    @Test
+    public void testStoredResponse() throws Exception {
+        IdempotencyStore store = new IdempotencyStore(folder.getRoot().toPath().resolve("requests"));
+        String fingerprint = IdempotencyStore.getFingerprint("post", "/items/1", new HashMap<>(), "{}");
+        assertNull(store.get(fingerprint));
+
+        store.put(fingerprint, ResponseBody.of("{\"id\":\"Ä1\"}"));
+        ResponseBody response = store.get(fingerprint);
+        assertEquals(StandardCharsets.UTF_8, response.getCharset());
+        assertEquals("{\"id\":\"Ä1\"}", response.asString());
+    }
+
+    @Test
+    public void testClearAfterSuccessfulRun() throws Exception {
+        Path requests = folder.getRoot().toPath().resolve("requests");
+        IdempotencyStore store = new IdempotencyStore(requests);
+        String fingerprint = IdempotencyStore.getFingerprint("post", "/items/1", new HashMap<>(), "{}");
+        String other = IdempotencyStore.getFingerprint("post", "/items/2", new HashMap<>(), "{}");
+        store.put(fingerprint, ResponseBody.of("{}"));
+        new IdempotencyStore(requests).put(other, ResponseBody.of("{}"));
+
+        // only the requests of this run are cleared, so that a later run sends them again
+        store.clear();
+        assertNull(store.get(fingerprint));
+        assertNotNull(store.get(other));
+    }
+
+    @Test
+    public void testExpiredRecord() throws Exception {
+        Path requests = folder.getRoot().toPath().resolve("requests");
+        IdempotencyStore store = new IdempotencyStore(requests, 60000);
+        String fingerprint = IdempotencyStore.getFingerprint("post", "/items/1", new HashMap<>(), "{}");
+        store.put(fingerprint, ResponseBody.of("{}"));
+        assertNotNull(store.get(fingerprint));
+
+        Files.setLastModifiedTime(requests.resolve(fingerprint), FileTime.fromMillis(System.currentTimeMillis() - 120000));
+        assertNull(store.get(fingerprint));
+    }
+}
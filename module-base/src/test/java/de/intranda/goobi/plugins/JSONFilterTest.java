@@ -0,0 +1,86 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class JSONFilterTest {
+
+    private static final List<Target> TARGETS = List.of(new Target("ITEM_PID", "item.item_data.pid", "string"),
+            new Target("HOLDING_ID", "item.holding_data.holding_id", "string"));
+
+    @Test
+    public void testSplitPath() {
+        assertEquals(List.of("item", "item_data", "pid"), JSONFilter.splitPath("$.item.item_data.pid"));
+        assertEquals(List.of("thesis", "reviewers[?(@.role=='x' && @.reviewer_role.order==1)]", "surname"),
+                JSONFilter.splitPath("thesis.reviewers[?(@.role=='x' && @.reviewer_role.order==1)].surname"));
+    }
+
+    @Test
+    public void testMatchWithFallback() {
+        JSONFilter filter = new JSONFilter("item.item_data.alternative_call_number", "item.holding_data.permanent_call_number", "none");
+        Object document = JSONUtils.getJSONObjectFromString(createItems(3));
+
+        // item 1 has no alternative call number, hence the fallback is used
+        Map<String, List<Object>> results = filter.getFilteredValues(TARGETS, document, Set.of("SIG 1"));
+        assertEquals(List.of("pid1"), results.get("ITEM_PID"));
+        assertEquals(List.of("holding1"), results.get("HOLDING_ID"));
+
+        results = filter.getFilteredValues(TARGETS, document, Set.of("ALT 2"));
+        assertEquals(List.of("pid2"), results.get("ITEM_PID"));
+    }
+
+    @Test
+    public void testAlternativeOptions() {
+        Object document = JSONUtils.getJSONObjectFromString(createItems(3));
+
+        JSONFilter filter = new JSONFilter("item.item_data.alternative_call_number", "item.holding_data.permanent_call_number", "none");
+        assertTrue(filter.getFilteredValues(TARGETS, document, Set.of("unknown")).get("ITEM_PID").isEmpty());
+
+        filter = new JSONFilter("item.item_data.alternative_call_number", "item.holding_data.permanent_call_number", "all");
+        assertEquals(List.of("pid0", "pid1", "pid2"), filter.getFilteredValues(TARGETS, document, Set.of("unknown")).get("ITEM_PID"));
+
+        filter = new JSONFilter("item.item_data.alternative_call_number", "item.holding_data.permanent_call_number", "first");
+        assertEquals(List.of("pid0"), filter.getFilteredValues(TARGETS, document, Set.of("unknown")).get("ITEM_PID"));
+
+        filter = new JSONFilter("item.item_data.alternative_call_number", "item.holding_data.permanent_call_number", "last");
+        assertEquals(List.of("pid2"), filter.getFilteredValues(TARGETS, document, Set.of("unknown")).get("ITEM_PID"));
+
+        // the random alternative of a paginated command weights each page by its number of candidates
+        assertEquals(3, filter.getCandidateCount(TARGETS, document));
+    }
+
+    @Test
+    public void testIndexedMatchKeepsOrder() {
+        int count = JSONFilter.INDEX_THRESHOLD * 4;
+        JSONFilter filter = new JSONFilter("item.item_data.alternative_call_number", "item.holding_data.permanent_call_number", "none");
+        Object document = JSONUtils.getJSONObjectFromString(createItems(count));
+
+        Map<String, List<Object>> results = filter.getFilteredValues(TARGETS, document, Set.of("ALT 200", "SIG 7", "ALT 42"));
+        assertEquals(List.of("pid7", "pid42", "pid200"), results.get("ITEM_PID"));
+    }
+
+    /**
+     * create a response of an Alma items list, where every odd item has no alternative call number
+     */
+    private String createItems(int count) {
+        StringBuilder sb = new StringBuilder("{\"item\":[");
+        for (int i = 0; i < count; ++i) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append("{\"item_data\":{\"pid\":\"pid").append(i).append("\"");
+            if (i % 2 == 0) {
+                sb.append(",\"alternative_call_number\":\"ALT ").append(i).append("\"");
+            }
+            sb.append("},\"holding_data\":{\"holding_id\":\"holding").append(i).append("\",\"permanent_call_number\":\"SIG ").append(i).append("\"}}");
+        }
+        sb.append("],\"total_record_count\":").append(count).append("}");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JSONUtilsTest {
+
+    @Test
+    public void testParallelValuesOfRecordsKeepOrder() {
+        List<Object> records = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            records.add(Map.of("fullname", "Student " + i, "matricle", i, "roles", List.of("Student", "Reviewer")));
+        }
+        List<String> paths = List.of("fullname", "matricle", "roles", "missing");
+
+        List<List<List<String>>> sequential = JSONUtils.getValuesOfRecords(paths, records, Integer.MAX_VALUE);
+        List<List<List<String>>> parallel = JSONUtils.getValuesOfRecords(paths, records, 1);
+
+        assertEquals(sequential, parallel);
+        assertEquals(List.of(List.of("Student 7"), List.of("7"), List.of("Student", "Reviewer"), List.of()), parallel.get(7));
+    }
+}
@@ -0,0 +1,49 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.junit.Test;
+
+public class PaginationTest {
+
+    private static Pagination createPagination(String xml) throws Exception {
+        XMLConfiguration config = new XMLConfiguration();
+        config.load(new StringReader(xml));
+        config.setExpressionEngine(new XPathExpressionEngine());
+        return new Pagination(config, false);
+    }
+
+    @Test
+    public void testDefaults() throws Exception {
+        Pagination pagination = createPagination("<paginate />");
+        assertEquals(100, pagination.getLimit());
+        assertEquals(Pagination.DEFAULT_JSON_TOTAL_PATH, pagination.getTotalPath());
+
+        Map<String, String> parameters = pagination.getPageParameters(Collections.singletonMap("view", "brief"), 200);
+        assertEquals("brief", parameters.get("view"));
+        assertEquals("200", parameters.get("offset"));
+        assertEquals("100", parameters.get("limit"));
+    }
+
+    @Test
+    public void testRemainingOffsets() throws Exception {
+        Pagination pagination = createPagination("<paginate limit=\"50\" max-records=\"180\" />");
+        assertEquals(Arrays.asList(50, 100, 150), pagination.getRemainingOffsets(1000));
+        assertEquals(Arrays.asList(50), pagination.getRemainingOffsets(100));
+        assertEquals(Collections.emptyList(), pagination.getRemainingOffsets(0));
+    }
+
+    @Test
+    public void testParseTotal() {
+        assertEquals(245, Pagination.parseTotal(Arrays.asList((Object) 245)));
+        assertEquals(245, Pagination.parseTotal(Arrays.asList((Object) " 245 ")));
+        assertEquals(-1, Pagination.parseTotal(Collections.emptyList()));
+    }
+}
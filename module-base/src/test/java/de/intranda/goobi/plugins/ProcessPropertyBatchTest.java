@@ -0,0 +1,105 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.EasyMock;
+import org.goobi.beans.Processproperty;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import de.sub.goobi.persistence.managers.PropertyManager;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ PropertyManager.class })
+@PowerMockIgnore({ "javax.management.*", "javax.xml.*", "org.xml.*", "org.w3c.*", "jdk.internal.reflect.*" })
+public class ProcessPropertyBatchTest {
+
+    @Test
+    public void testRepeatedSavesCollapse() {
+        Processproperty existing = createProperty("Status", "old");
+        List<Processproperty> loaded = new ArrayList<>();
+        loaded.add(existing);
+        Capture<Processproperty> saved = Capture.newInstance(CaptureType.ALL);
+        PowerMock.mockStatic(PropertyManager.class);
+        EasyMock.expect(PropertyManager.getProcessPropertiesForProcess(1)).andReturn(loaded).once();
+        PropertyManager.saveProcessProperty(EasyMock.capture(saved));
+        EasyMock.expectLastCall().times(2);
+        PowerMock.replay(PropertyManager.class);
+
+        ProcessPropertyBatch batch = new ProcessPropertyBatch(1);
+        batch.setProperty("Status", "first", true);
+        batch.setProperty("Status", "second", true);
+        batch.setProperty("Barcode", "B1", true);
+        batch.setProperty("Barcode", "B2", true);
+        assertTrue(batch.flush());
+
+        // every property is written once with its last value, and the existing property is reused
+        assertEquals(2, saved.getValues().size());
+        assertSame(existing, saved.getValues().get(0));
+        assertEquals("second", saved.getValues().get(0).getWert());
+        assertEquals("Barcode", saved.getValues().get(1).getTitel());
+        assertEquals("B2", saved.getValues().get(1).getWert());
+        // one round trip to load the properties and one per written property
+        assertEquals(3, batch.getDatabaseRoundTrips());
+        PowerMock.verify(PropertyManager.class);
+    }
+
+    @Test
+    public void testFlushWritesOnce() {
+        Capture<Processproperty> saved = Capture.newInstance(CaptureType.ALL);
+        PowerMock.mockStatic(PropertyManager.class);
+        PropertyManager.saveProcessProperty(EasyMock.capture(saved));
+        EasyMock.expectLastCall().times(2);
+        PowerMock.replay(PropertyManager.class);
+
+        ProcessPropertyBatch batch = new ProcessPropertyBatch(1);
+        // properties that are not overwritten are created for every value, without loading the existing ones
+        batch.setProperty("Keyword", "a", false);
+        batch.setProperty("Keyword", "b", false);
+        assertTrue(batch.flush());
+        // nothing was modified since the last flush
+        assertTrue(batch.flush());
+
+        assertEquals(List.of("a", "b"), List.of(saved.getValues().get(0).getWert(), saved.getValues().get(1).getWert()));
+        assertEquals(2, batch.getDatabaseRoundTrips());
+        PowerMock.verify(PropertyManager.class);
+    }
+
+    @Test
+    public void testFailedFlush() {
+        PowerMock.mockStatic(PropertyManager.class);
+        EasyMock.expect(PropertyManager.getProcessPropertiesForProcess(1)).andReturn(Collections.emptyList()).once();
+        PropertyManager.saveProcessProperty(EasyMock.anyObject());
+        EasyMock.expectLastCall().andThrow(new IllegalStateException("database not available"));
+        PropertyManager.saveProcessProperty(EasyMock.anyObject());
+        PowerMock.replay(PropertyManager.class);
+
+        ProcessPropertyBatch batch = new ProcessPropertyBatch(1);
+        batch.setProperty("Status", "done", true);
+        assertFalse(batch.flush());
+        // the failed property is retried by the next flush
+        assertTrue(batch.flush());
+        PowerMock.verify(PropertyManager.class);
+    }
+
+    private static Processproperty createProperty(String title, String value) {
+        Processproperty property = new Processproperty();
+        property.setTitel(title);
+        property.setWert(value);
+        property.setProcessId(1);
+        return property;
+    }
+}
@@ -0,0 +1,109 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RecordingTransportTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("recordings/alma.rec");
+        int[] calls = new int[1];
+        HttpTransport backend = request -> {
+            calls[0]++;
+            if (request.getURI().getPath().endsWith("/missing")) {
+                throw HttpStatusException.of(404, ResponseBody.of("{\"error\":\"not found\"}"));
+            }
+            return ResponseBody.of("{\"call\":" + calls[0] + "}");
+        };
+
+        HttpTransport recording = new RecordingTransport(backend, file);
+        assertEquals("{\"call\":1}", recording.execute(new HttpGet("https://alma/bibs/1?view=full&apikey=secret")).asString());
+        assertEquals("{\"call\":2}", recording.execute(new HttpGet("https://alma/bibs/1?view=full&apikey=secret")).asString());
+        assertEquals("{\"call\":3}", recording.execute(createPost("https://alma/loans?apikey=secret", "{\"id\":1}")).asString());
+        assertStatus(404, "{\"error\":\"not found\"}", recording, new HttpGet("https://alma/bibs/missing?apikey=secret"));
+        // the API key is never recorded
+        assertTrue(Files.size(file) > 0);
+        assertFalse(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1).contains("secret"));
+
+        // identical requests get their responses in the recorded order, also with another API key
+        HttpTransport replay = new ReplayTransport(file, false);
+        assertEquals("{\"call\":1}", replay.execute(new HttpGet("https://alma/bibs/1?view=full&apikey=other")).asString());
+        assertEquals("{\"call\":2}", replay.execute(new HttpGet("https://alma/bibs/1?view=full&apikey=other")).asString());
+        assertEquals("{\"call\":2}", replay.execute(new HttpGet("https://alma/bibs/1?view=full&apikey=other")).asString());
+        assertEquals("{\"call\":3}", replay.execute(createPost("https://alma/loans?apikey=other", "{\"id\":1}")).asString());
+        // the raw body of an error response is recorded
+        assertStatus(404, "{\"error\":\"not found\"}", replay, new HttpGet("https://alma/bibs/missing?apikey=other"));
+        assertEquals(4, calls[0]);
+
+        try {
+            replay.execute(createPost("https://alma/loans?apikey=other", "{\"id\":2}"));
+            fail("a request that was not recorded must fail");
+        } catch (IOException e) {
+            assertEquals("No recorded response for POST https://alma/loans?", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("alma.rec");
+        HttpTransport recording = new RecordingTransport(request -> ResponseBody.of(request.getURI().getPath()), file);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<ResponseBody>> responses = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                HttpGet request = new HttpGet("https://alma/bibs/" + i + "?apikey=secret");
+                responses.add(executor.submit(() -> recording.execute(request)));
+            }
+            for (Future<ResponseBody> response : responses) {
+                response.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // every response is recorded completely
+        HttpTransport replay = new ReplayTransport(file, false);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("/bibs/" + i, replay.execute(new HttpGet("https://alma/bibs/" + i + "?apikey=other")).asString());
+        }
+    }
+
+    private static HttpPost createPost(String url, String body) {
+        HttpPost post = new HttpPost(url);
+        post.setEntity(new StringEntity(body, StandardCharsets.UTF_8));
+        return post;
+    }
+
+    private static void assertStatus(int statusCode, String body, HttpTransport transport, HttpGet request) throws IOException {
+        try {
+            transport.execute(request);
+            fail("the request must fail with status code " + statusCode);
+        } catch (HttpStatusException e) {
+            assertEquals(statusCode, e.getStatusCode());
+            assertEquals(body, e.getBody().asString());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class RequestPlanTest {
+
+    @Test
+    public void testEstimateBytes() {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Accept", "application/json");
+        // "GET /bibs HTTP/1.1\r\n" + "Accept: application/json\r\n" + "\r\n" + body
+        assertEquals(20 + 26 + 2, RequestPlan.estimateBytes("GET", "/bibs", headers, null));
+        // the body is counted in UTF-8, where ä takes two bytes
+        assertEquals(21 + 26 + 2 + 6, RequestPlan.estimateBytes("POST", "/bibs", headers, "{\"ä\"}"));
+    }
+
+    @Test
+    public void testSummary() {
+        RequestPlan plan = new RequestPlan();
+        plan.startCommand("get /bibs/{mms_id}", 2);
+        plan.addRequest(100);
+        plan.addRequest(50);
+        plan.addReplayedResponse(1000);
+        plan.startCommand("post /loans", 0);
+
+        List<String> summary = plan.getSummary();
+        assertEquals(List.of("get /bibs/{mms_id}: expanded to 2 endpoints, 2 requests with about 150 bytes, 1 responses replayed with 1000 bytes.",
+                "post /loans: expanded to 0 endpoints, 0 requests with about 0 bytes, 0 responses replayed with 0 bytes.",
+                "Dry run of 2 commands: 2 requests with about 150 bytes."), summary);
+    }
+}
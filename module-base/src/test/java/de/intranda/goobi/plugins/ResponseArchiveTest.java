@@ -0,0 +1,58 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResponseArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEndpointMode() throws Exception {
+        Path configured = folder.getRoot().toPath().resolve("responses/response.json");
+        ResponseArchive archive = new ResponseArchive(1);
+        for (int i = 1; i <= 5; ++i) {
+            archive.store(configured, ResponseArchive.MODE_ENDPOINT, ResponseArchive.COMPRESSION_NONE, ResponseBody.of("{\"id\":" + i + "}"));
+        }
+        assertTrue(archive.close());
+
+        for (int i = 1; i <= 5; ++i) {
+            Path path = configured.resolveSibling("response_" + i + ".json");
+            assertEquals("{\"id\":" + i + "}", Files.readString(path));
+        }
+    }
+
+    @Test
+    public void testAppendModeWithGzip() throws Exception {
+        Path configured = folder.getRoot().toPath().resolve("archive.json");
+        // an old archive of a previous run is replaced
+        Files.writeString(configured.resolveSibling("archive.json.gz"), "old");
+
+        ResponseArchive archive = new ResponseArchive();
+        archive.store(configured, ResponseArchive.MODE_APPEND, ResponseArchive.COMPRESSION_GZIP, ResponseBody.of("first"));
+        archive.store(configured, ResponseArchive.MODE_APPEND, ResponseArchive.COMPRESSION_GZIP, ResponseBody.of("{\n  \"id\": \"Ä\"\n}"));
+        assertTrue(archive.close());
+
+        // every response is preceded by its length in bytes, so that responses with line breaks can be split again
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(configured.resolveSibling("archive.json.gz")))) {
+            assertEquals("5\nfirst\n16\n{\n  \"id\": \"Ä\"\n}\n", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testEndpointPath() {
+        Path path = folder.getRoot().toPath().resolve("response");
+        assertEquals(path.resolveSibling("response_3"), ResponseArchive.getEndpointPath(path, 3));
+    }
+}
@@ -0,0 +1,46 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.entity.BasicHttpEntity;
+import org.junit.Test;
+
+public class ResponseBodyTest {
+
+    private static final String JSON = "{\"bib\":[" + "{\"mms_id\":\"991234567890\",\"title\":\"Ä title\"},".repeat(100) + "{}]}";
+
+    @Test
+    public void testUncompressed() throws Exception {
+        byte[] data = JSON.getBytes(StandardCharsets.UTF_8);
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(new ByteArrayInputStream(data));
+        entity.setContentLength(data.length);
+
+        ResponseBody body = ResponseBody.read(entity);
+        assertEquals(JSON, body.asString());
+        assertEquals(data.length, body.getWireLength());
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(JSON.getBytes(StandardCharsets.UTF_8));
+        }
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(new ByteArrayInputStream(compressed.toByteArray()));
+        entity.setContentLength(compressed.size());
+        entity.setContentEncoding("gzip");
+
+        ResponseBody body = ResponseBody.read(entity);
+        assertEquals(JSON, body.asString());
+        assertEquals(compressed.size(), body.getWireLength());
+        assertTrue(body.getWireLength() < body.getLength());
+    }
+}
@@ -0,0 +1,91 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResponseCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMemoryCache() throws Exception {
+        AtomicLong clock = new AtomicLong(1000);
+        MemoryResponseCache cache = new MemoryResponseCache(2, clock::get);
+        cache.put("a", ResponseBody.of("{\"id\":1}"), 100);
+        cache.put("b", ResponseBody.of("{\"id\":2}"), 100);
+        assertEquals("{\"id\":1}", cache.get("a").asString());
+
+        // b is the least recently used entry
+        cache.put("c", ResponseBody.of("{\"id\":3}"), 100);
+        assertNull(cache.get("b"));
+
+        clock.set(1100);
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testFileCacheIsSharedByNodes() throws Exception {
+        Path shared = folder.getRoot().toPath().resolve("cache");
+        AtomicLong clock = new AtomicLong(1000);
+        FileResponseCache first = new FileResponseCache(shared, 64, clock::get);
+        FileResponseCache second = new FileResponseCache(shared, 64, clock::get);
+        String key = Fingerprint.of("https://api/almaws/v1/bibs/99123");
+
+        assertNull(second.get(key));
+        first.put(key, ResponseBody.of("{\"title\":\"Ä\"}"), 100);
+        ResponseBody response = second.get(key);
+        assertEquals(StandardCharsets.UTF_8, response.getCharset());
+        assertEquals("{\"title\":\"Ä\"}", response.asString());
+
+        // no temporary files are left behind
+        try (var files = Files.list(shared)) {
+            assertFalse(files.anyMatch(path -> path.toString().endsWith(".tmp")));
+        }
+
+        clock.set(1100);
+        assertNull(second.get(key));
+        assertNull(first.get(key));
+    }
+
+    @Test
+    public void testExpiredFilesAreSwept() throws Exception {
+        Path shared = folder.getRoot().toPath().resolve("cache");
+        AtomicLong clock = new AtomicLong(1000);
+        FileResponseCache cache = new FileResponseCache(shared, 4, clock::get);
+        cache.put(Fingerprint.of("expired 1"), ResponseBody.of("{}"), 100);
+        cache.put(Fingerprint.of("expired 2"), ResponseBody.of("{}"), 100);
+        cache.put(Fingerprint.of("fresh"), ResponseBody.of("{}"), 1000);
+        assertEquals(3, countResponses(shared));
+
+        // expired responses that are never read again are removed when a cache is created
+        clock.set(1100);
+        cache = new FileResponseCache(shared, 4, clock::get);
+        assertEquals(1, countResponses(shared));
+
+        // and whenever as many responses were put as the index has slots
+        clock.set(2000);
+        for (int i = 0; i < 3; ++i) {
+            cache.put(Fingerprint.of("new"), ResponseBody.of("{}"), 1000);
+        }
+        assertEquals(2, countResponses(shared));
+        cache.put(Fingerprint.of("new"), ResponseBody.of("{}"), 1000);
+        assertEquals(1, countResponses(shared));
+    }
+
+    private static long countResponses(Path folder) throws Exception {
+        try (var files = Files.list(folder)) {
+            return files.filter(path -> !"index".equals(path.getFileName().toString())).count();
+        }
+    }
+}
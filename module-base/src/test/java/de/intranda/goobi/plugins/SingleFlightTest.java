@@ -0,0 +1,130 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testIdenticalCallsAreMerged() throws Exception {
+        SingleFlight<Object> flight = new SingleFlight<>();
+        AtomicInteger sent = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Object response = new Object();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<Object> first = executor.submit(() -> flight.execute("portfolio", Long.MAX_VALUE, () -> {
+                sent.incrementAndGet();
+                await(release);
+                return response;
+            }));
+            // wait until the first call is running
+            while (sent.get() == 0) {
+                Thread.sleep(5);
+            }
+            Future<Object> second = executor.submit(() -> flight.execute("portfolio", Long.MAX_VALUE, () -> {
+                sent.incrementAndGet();
+                return new Object();
+            }));
+            while (flight.getCoalescedCalls() == 0) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            assertSame(response, first.get());
+            assertSame(response, second.get());
+            assertEquals(1, sent.get());
+            assertEquals(2, flight.getCalls());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // a finished call is not reused
+        assertEquals("new", flight.execute("portfolio", Long.MAX_VALUE, () -> "new"));
+    }
+
+    @Test
+    public void testFailureIsShared() throws Exception {
+        SingleFlight<Object> flight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            executor.submit(() -> flight.execute("bib", Long.MAX_VALUE, () -> {
+                started.countDown();
+                await(release);
+                throw new IOException("failed");
+            }));
+            started.await();
+            Future<Object> second = executor.submit(() -> flight.execute("bib", Long.MAX_VALUE, () -> "not sent"));
+            while (flight.getCoalescedCalls() == 0) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            try {
+                second.get();
+                fail("the failure of the running call should be shared");
+            } catch (ExecutionException e) {
+                assertEquals("failed", e.getCause().getMessage());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAbortedCallIsRetried() throws Exception {
+        // only HTTP errors are shared, like in the plugin
+        SingleFlight<Object> flight = new SingleFlight<>(failure -> failure instanceof HttpStatusException);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> first = executor.submit(() -> flight.execute("bib", Long.MAX_VALUE, () -> {
+                started.countDown();
+                await(release);
+                throw new IOException("aborted");
+            }));
+            started.await();
+            Future<Object> second = executor.submit(() -> flight.execute("bib", Long.MAX_VALUE, () -> "sent again"));
+            while (flight.getCoalescedCalls() == 0) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            // the abort of the first call says nothing about the request, hence the waiting caller sends it itself
+            assertEquals("sent again", second.get());
+            assertEquals(1, flight.getRetriedCalls());
+            try {
+                first.get();
+                fail("the first call should fail");
+            } catch (ExecutionException e) {
+                assertEquals("aborted", e.getCause().getMessage());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+}
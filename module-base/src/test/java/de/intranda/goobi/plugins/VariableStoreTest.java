@@ -0,0 +1,184 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VariableStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testScalarValues() {
+        VariableStore store = new VariableStore();
+        store.put("{$ids}", List.of("991", 992L, true));
+
+        VariableStore.Variable variable = store.get("{$ids}");
+        assertTrue(variable.isScalar());
+        assertEquals(List.of("991", "992", "true"), variable.getStrings(false));
+        // the views are created once and shared by all lookups
+        assertSame(variable.getStrings(false), variable.getStrings(false));
+        assertSame(variable.getStrings(false), variable.getStrings(true));
+        assertSame(variable.getValueSet(), variable.getValueSet());
+        assertEquals(Set.of("991", "992", "true"), variable.getValueSet());
+        assertEquals(List.of("991", "992", "true"), variable.getValues());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testJsonValues() {
+        JSONArray array = new JSONArray();
+        array.add("a");
+        array.add("b");
+        JSONObject object = new JSONObject();
+        object.put("id", "c");
+        Map<String, Object> node = Map.of("id", "d");
+
+        VariableStore store = new VariableStore();
+        store.put("{$nodes}", List.of(array, object, node));
+
+        VariableStore.Variable variable = store.get("{$nodes}");
+        assertFalse(variable.isScalar());
+        assertEquals(List.of("a", "b", "{\"id\":\"c\"}", "{id=d}"), variable.getStrings(false));
+        assertEquals(List.of("a", "b", "{\"id\":\"c\"}", "{\"id\":\"d\"}"), variable.getStrings(true));
+        assertSame(variable.getStrings(true), variable.getStrings(true));
+        // the nodes are kept, e.g. to be used as records of metadata groups
+        assertSame(node, variable.getValues().get(2));
+    }
+
+    @Test
+    public void testReplaceVariable() {
+        VariableStore store = new VariableStore();
+        assertEquals(null, store.put("{$id}", List.of("1")));
+        assertTrue(store.put("{$id}", List.of("2")) != null);
+        assertEquals(List.of("2"), store.get("{$id}").getStrings(false));
+        assertFalse(store.contains("{$other}"));
+    }
+
+    @Test
+    public void testSpilledVariables() throws Exception {
+        Path spillFolder = folder.getRoot().toPath().resolve("spill");
+        VariableStore store = new VariableStore();
+        VariableStore.Execution execution = new VariableStore.Execution(20, spillFolder, 0);
+
+        store.put("{$small}", List.of("1"), execution);
+        store.put("{$ids}", List.of("991234", "995678"), execution);
+        store.put("{$record}", List.of(Map.of("mms_id", "991234", "title", "Spilled")), execution);
+        assertFalse(store.get("{$small}") instanceof VariableStore.SpilledVariable);
+        assertTrue(store.get("{$ids}") instanceof VariableStore.SpilledVariable);
+        try (var files = Files.list(spillFolder)) {
+            assertEquals(2, files.count());
+        }
+
+        // spilled values are read again whenever they are used
+        VariableStore.Variable ids = store.get("{$ids}");
+        assertEquals(List.of("991234", "995678"), ids.getStrings(false));
+        assertNotSame(ids.getStrings(false), ids.getStrings(false));
+        assertEquals(Set.of("991234", "995678"), ids.getValueSet());
+        VariableStore.Variable record = store.get("{$record}");
+        assertFalse(record.isScalar());
+        assertEquals("Spilled", ((Map<?, ?>) record.getValues().get(0)).get("title"));
+
+        // replaced and released variables delete their files
+        store.put("{$ids}", List.of("1"), execution);
+        try (var files = Files.list(spillFolder)) {
+            assertEquals(1, files.count());
+        }
+        // the files of other executions are kept
+        VariableStore.Execution other = new VariableStore.Execution(20, spillFolder, 0);
+        store.put("{$other}", List.of("991234", "995678"), other);
+        store.release(execution);
+        assertFalse(store.contains("{$record}"));
+        assertTrue(store.contains("{$ids}"));
+        assertEquals(List.of("991234", "995678"), store.get("{$other}").getStrings(false));
+        try (var files = Files.list(spillFolder)) {
+            assertEquals(1, files.count());
+        }
+        store.release(other);
+        try (var files = Files.list(spillFolder)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testListeners() {
+        VariableStore store = new VariableStore();
+        VariableStore.Execution execution = new VariableStore.Execution(0, null, 0);
+        VariableStore.Execution other = new VariableStore.Execution(0, null, 0);
+        List<String> received = new ArrayList<>();
+        execution.subscribe("{$student}", (key, variable) -> received.addAll(variable.getStrings(false)));
+        other.subscribe("{$student}", (key, variable) -> fail("values of another execution must not be received"));
+
+        store.put("{$student}", List.of("1", "2"), execution);
+        store.put("{$other}", List.of("3"), execution);
+        store.put("{$student}", List.of("4"), execution);
+        // every update is received, not only the last one
+        assertEquals(List.of("1", "2", "4"), received);
+        assertTrue(execution.hasPut("{$student}"));
+        assertFalse(other.hasPut("{$student}"));
+
+        // releasing another execution keeps the listeners of this one
+        store.release(other);
+        store.put("{$student}", List.of("5"), execution);
+        assertEquals(4, received.size());
+
+        store.release(execution);
+        store.put("{$student}", List.of("6"), execution);
+        assertEquals(4, received.size());
+    }
+
+    @Test
+    public void testConcurrentExecutions() throws Exception {
+        VariableStore store = new VariableStore();
+        Path spillFolder = folder.getRoot().toPath();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (int run = 0; run < 4; run++) {
+                String prefix = "{$run" + run + "-";
+                VariableStore.Execution execution = new VariableStore.Execution(run % 2 == 0 ? 20 : 0, spillFolder, 0);
+                runs.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        store.put(prefix + i + "}", List.of("value of a variable " + i), execution);
+                        assertEquals(List.of("value of a variable " + i), store.get(prefix + i + "}").getStrings(false));
+                        // the shared variable is read by all executions
+                        store.put("{$shared}", List.of(String.valueOf(i)), execution);
+                        assertEquals(1, store.get("{$shared}").getValueSet().size());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> run : runs) {
+                run.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int run = 0; run < 4; run++) {
+            for (int i = 0; i < 500; i++) {
+                assertTrue(store.contains("{$run" + run + "-" + i + "}"));
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class XMLTargetEvaluatorTest {
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<items total_record_count=\"3\">"
+            + "<item link=\"https://example.org/items/1\"><bib_data><mms_id>991</mms_id></bib_data>"
+            + "<item_data><barcode>A1</barcode><library desc=\"Main\">MAIN</library></item_data></item>"
+            + "<item link=\"https://example.org/items/2\"><bib_data><mms_id>992</mms_id></bib_data>"
+            + "<item_data><barcode>A2</barcode><library desc=\"Branch\">BR</library></item_data></item>"
+            + "<item link=\"https://example.org/items/3\"><bib_data><mms_id>993</mms_id></bib_data>"
+            + "<item_data><barcode><![CDATA[A3]]></barcode><library desc=\"Main\">MAIN</library><note>first <b>bold</b> second</note></item_data></item>"
+            + "</items>";
+
+    private static List<Object> evaluate(String path) throws Exception {
+        Map<String, List<Object>> results = XMLTargetEvaluator.evaluate(Arrays.asList(new Target("VAR", path, "string")),
+                new ByteArrayInputStream(XML.getBytes(StandardCharsets.UTF_8)), "UTF-8");
+        return results.get("VAR");
+    }
+
+    @Test
+    public void testChildSteps() throws Exception {
+        assertEquals(Arrays.asList("991", "992", "993"), evaluate("/items/item/bib_data/mms_id"));
+        assertEquals(Arrays.asList("A1", "A2", "A3"), evaluate("items/*/item_data/barcode"));
+    }
+
+    @Test
+    public void testDescendantSteps() throws Exception {
+        assertEquals(Arrays.asList("A1", "A2", "A3"), evaluate("//barcode"));
+        assertEquals(Arrays.asList("991", "992", "993"), evaluate("/items//mms_id"));
+    }
+
+    @Test
+    public void testPredicates() throws Exception {
+        assertEquals(Arrays.asList("992"), evaluate("/items/item[2]/bib_data/mms_id"));
+        assertEquals(Arrays.asList("MAIN", "MAIN"), evaluate("//library[@desc='Main']"));
+        assertEquals(Arrays.asList("https://example.org/items/3"), evaluate("/items/item[3]/@link"));
+    }
+
+    @Test
+    public void testAttributesAndText() throws Exception {
+        assertEquals(Arrays.asList("3"), evaluate("/items/@total_record_count"));
+        assertEquals(Arrays.asList("first bold second"), evaluate("//note"));
+        assertEquals(Arrays.asList("first  second"), evaluate("//note/text()"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedPredicate() throws Exception {
+        evaluate("//item[last()]");
+    }
+}